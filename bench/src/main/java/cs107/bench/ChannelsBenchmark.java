@@ -0,0 +1,45 @@
+package cs107.bench;
+
+import cs107.ArrayUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversions between the pixels of an image and its RGBA channels
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ChannelsBenchmark {
+
+	/**
+	 * @param state (ImageState) - Image converted
+	 * @return (byte[][]) - Channels, consumed by JMH
+	 */
+	@Benchmark
+	public byte[][] imageToChannels(ImageState state) {
+		return ArrayUtils.imageToChannels(state.pixels);
+	}
+
+	/**
+	 * @param state (ImageState) - Image converted
+	 * @return (int[][]) - Pixels, consumed by JMH
+	 */
+	@Benchmark
+	public int[][] channelsToImage(ImageState state) {
+		return ArrayUtils.channelsToImage(state.channels, state.height, state.width);
+	}
+
+}
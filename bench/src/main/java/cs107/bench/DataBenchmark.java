@@ -0,0 +1,46 @@
+package cs107.bench;
+
+import cs107.QOIDecoder;
+import cs107.QOIEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of the pixels, without the header and the end marker
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DataBenchmark {
+
+	/**
+	 * @param state (ImageState) - Image encoded
+	 * @return (byte[]) - Encoded pixels, consumed by JMH
+	 */
+	@Benchmark
+	public byte[] encodeData(ImageState state) {
+		return QOIEncoder.encodeData(state.channels);
+	}
+
+	/**
+	 * @param state (ImageState) - Image decoded
+	 * @return (byte[][]) - Decoded channels, consumed by JMH
+	 */
+	@Benchmark
+	public byte[][] decodeData(ImageState state) {
+		return QOIDecoder.decodeData(state.data, state.width, state.height);
+	}
+
+}
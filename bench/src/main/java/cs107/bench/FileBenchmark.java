@@ -0,0 +1,51 @@
+package cs107.bench;
+
+import cs107.QOIDecoder;
+import cs107.QOIEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading of the header and round trip of complete "QOI" files
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FileBenchmark {
+
+	/**
+	 * @param state (ImageState) - Image whose header is read
+	 * @param sink  (Blackhole) - Consumes the header fields
+	 */
+	@Benchmark
+	public void decodeHeader(ImageState state, Blackhole sink) {
+		var header = QOIDecoder.decodeHeader(state.file);
+		sink.consume(header[0]);
+		sink.consume(header[1]);
+	}
+
+	/**
+	 * @param state (ImageState) - Image encoded then decoded
+	 * @param sink  (Blackhole) - Consumes the file and the decoded image
+	 */
+	@Benchmark
+	public void roundTrip(ImageState state, Blackhole sink) {
+		var file = QOIEncoder.qoiFile(state.decoded);
+		sink.consume(file);
+		sink.consume(QOIDecoder.decodeQoiFile(file));
+	}
+
+}
@@ -0,0 +1,65 @@
+package cs107.bench;
+
+import cs107.ArrayUtils;
+import cs107.Helper;
+import cs107.QOIEncoder;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * One image of the reference corpus, with its representations as the inputs of each benchmark.
+ * The corpus is read from 'references/', or from '../references/' when the benchmarks are run
+ * from the 'bench/' directory.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+@State(Scope.Benchmark)
+public class ImageState {
+
+	/** Name of the "PNG" image of the corpus, without its extension */
+	@Param({"dice", "beach", "EPFL", "random"})
+	public String image;
+
+	/** The image, as read by Helper */
+	public Helper.Image decoded;
+
+	/** Pixels of the image */
+	public int[][] pixels;
+
+	/** Pixels of the image as RGBA channels */
+	public byte[][] channels;
+
+	/** Encoded pixels, without the header and the end marker */
+	public byte[] data;
+
+	/** Complete "QOI" file of the image */
+	public byte[] file;
+
+	/** Width of the image */
+	public int width;
+
+	/** Height of the image */
+	public int height;
+
+	/**
+	 * Read the image and prepare its representations
+	 */
+	@Setup
+	public void setUp() {
+		var directory = Files.isDirectory(Path.of("references")) ? Path.of("references") : Path.of("..", "references");
+		decoded = Helper.readImage(directory.resolve(image + ".png").toString());
+		pixels = decoded.data();
+		height = pixels.length;
+		width = pixels[0].length;
+		channels = ArrayUtils.imageToChannels(pixels);
+		data = QOIEncoder.encodeData(channels);
+		file = QOIEncoder.qoiFile(decoded);
+	}
+
+}
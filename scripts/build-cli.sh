@@ -0,0 +1,19 @@
+#!/bin/sh
+# Build build/qoi.jar and a class data sharing archive (build/qoi.jsa) for the command line.
+# The archive stores the classes loaded by a training run (the Cli, the codec and the JDK
+# classes they use) already parsed and verified, so the following runs start faster :
+#   java -XX:SharedArchiveFile=build/qoi.jsa -jar build/qoi.jar info image.qoi
+set -e
+cd "$(dirname "$0")/.."
+
+rm -rf build/classes build/qoi.jar build/qoi.jsa
+mkdir -p build/classes
+javac -d build/classes src/cs107/*.java
+jar --create --file build/qoi.jar --main-class cs107.Cli -C build/classes .
+
+# Training run : verify reads both formats and goes through the encoder and the decoders,
+# without writing anything
+java -XX:ArchiveClassesAtExit=build/qoi.jsa -jar build/qoi.jar \
+    verify references/*.png references/*.qoi > /dev/null
+
+echo "build/qoi.jar and build/qoi.jsa are ready"
@@ -0,0 +1,247 @@
+package cs107;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Allocation budget checks of the codec.
+ * The bytes allocated by QOIEncoder.qoiFile and QOIDecoder.decodeQoiFile are measured with
+ * the per-thread allocation counter of the JVM, on the "PNG" images of 'references/' and on
+ * synthetic images of every kind of content. The harness fails (exit status 1) as soon as an
+ * image needs more bytes than the budget of its operation : a number of bytes per pixel, plus
+ * a fixed number of bytes per call given by --fixed-budget (0 by default).
+ * <pre>
+ * java -cp out cs107.AllocationHarness [--tolerance FRACTION] [--encode-budget BYTES] [--decode-budget BYTES] [--fixed-budget BYTES] [--size N] [DIRECTORY]
+ * </pre>
+ * Each image has its own budget per pixel (see BUDGETS), the allocations of the current
+ * byte-array-per-pixel design measured on it, plus the tolerance : a change allocating more
+ * fails, and the budgets must be lowered with the allocations. These budgets already include
+ * the fixed allocations of a call (the index, the buffers ...), which are most of the bytes of
+ * the images of a few pixels, so no fixed budget is added to them by default. The images
+ * missing from BUDGETS (other files, another --size) fail, unless --encode-budget and
+ * --decode-budget give them a budget. The harness exits with status 1 as well when the JVM
+ * cannot count the bytes allocated by a thread.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class AllocationHarness {
+
+	/**
+	 * Allocation of one operation on one image
+	 *
+	 * @param image     (String) - Name of the image
+	 * @param operation (String) - Name of the operation
+	 * @param pixels    (long) - Number of pixels of the image
+	 * @param bytes     (long) - Number of bytes allocated by one call
+	 * @param fixed     (long) - Bytes allowed per call, whatever the number of pixels
+	 * @param budget    (double) - Bytes allowed per pixel
+	 */
+	public record Measure(String image, String operation, long pixels, long bytes, long fixed, double budget) {
+
+		/**
+		 * @return (double) - Number of bytes allocated per pixel
+		 */
+		public double bytesPerPixel() {
+			return (double) bytes / pixels;
+		}
+
+		/**
+		 * @return (boolean) - Whether the allocation fits in the budget
+		 */
+		public boolean withinBudget() {
+			return bytes <= fixed + budget * pixels;
+		}
+	}
+
+	/**
+	 * Budget of an image
+	 *
+	 * @param encode (double) - Bytes allowed per pixel to QOIEncoder.qoiFile
+	 * @param decode (double) - Bytes allowed per pixel to QOIDecoder.decodeQoiFile
+	 */
+	public record Budget(double encode, double decode) {
+	}
+
+	/**
+	 * An operation returning its result, so the JIT cannot remove it
+	 */
+	private interface Operation {
+		Object run();
+	}
+
+	/**
+	 * Bytes per pixel allocated by the current design on the images of 'references/' and on
+	 * the synthetic images of the default size, before the tolerance
+	 */
+	public static final Map<String, Budget> BUDGETS = Map.ofEntries(
+			Map.entry("EPFL.png", new Budget(52.2, 32.1)),
+			Map.entry("beach.png", new Budget(87.4, 47.5)),
+			Map.entry("cube.png", new Budget(71.0, 38.8)),
+			Map.entry("dice.png", new Budget(75.3, 38.4)),
+			Map.entry("qoi_encode_test.png", new Budget(118.0, 96.3)),
+			Map.entry("qoi_op_diff.png", new Budget(461.4, 413.4)),
+			Map.entry("qoi_op_index.png", new Budget(424.0, 397.4)),
+			Map.entry("qoi_op_luma.png", new Budget(460.0, 413.4)),
+			Map.entry("qoi_op_rgb.png", new Budget(442.7, 413.4)),
+			Map.entry("qoi_op_rgba.png", new Budget(452.0, 413.4)),
+			Map.entry("qoi_op_run.png", new Budget(417.4, 393.4)),
+			Map.entry("random.png", new Budget(152.5, 59.1)),
+			Map.entry("runs_256x256_107.qoi", new Budget(52.4, 32.3)),
+			Map.entry("palette_256x256_107.qoi", new Budget(55.7, 32.2)),
+			Map.entry("gradient_256x256_107.qoi", new Budget(107.0, 55.9)),
+			Map.entry("noise_256x256_107.qoi", new Budget(92.1, 56.2)),
+			Map.entry("alpha_256x256_107.qoi", new Budget(150.0, 56.2)));
+
+	/** Default margin over the budgets of BUDGETS, as a fraction of them */
+	public static final double TOLERANCE = 0.05;
+
+	/**
+	 * Default number of bytes allowed per call on top of the budget per pixel. The budgets of
+	 * BUDGETS include the fixed allocations, any slack would hide a regression on the images
+	 * of a few pixels (about 2.5 KB per call)
+	 */
+	public static final long FIXED_BUDGET = 0;
+
+	// Calls before measuring, so the measure is the one of the compiled code
+	private static final int WARMUP = 5;
+
+	// Calls measured, the smallest allocation is kept
+	private static final int RUNS = 3;
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	// Written with the results of the operations, so they are never dead code
+	private static volatile Object sink;
+
+	// Hide default constructor
+	private AllocationHarness() {
+	}
+
+	/**
+	 * Run the checks from the command line
+	 *
+	 * @param args (String[]) - Options then the directory of the "PNG" images
+	 * @throws IOException if the images cannot be listed
+	 */
+	public static void main(String[] args) throws IOException {
+		double tolerance = TOLERANCE;
+		double encodeBudget = Double.NaN;
+		double decodeBudget = Double.NaN;
+		long fixedBudget = FIXED_BUDGET;
+		int size = 256;
+		var directory = Path.of("references");
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--tolerance" -> tolerance = Double.parseDouble(args[++i]);
+				case "--encode-budget" -> encodeBudget = Double.parseDouble(args[++i]);
+				case "--decode-budget" -> decodeBudget = Double.parseDouble(args[++i]);
+				case "--fixed-budget" -> fixedBudget = Long.parseLong(args[++i]);
+				case "--size" -> size = Integer.parseInt(args[++i]);
+				default -> directory = Path.of(args[i]);
+			}
+		}
+
+		if (!THREADS.isThreadAllocatedMemorySupported()) {
+			System.err.println("This JVM cannot measure the bytes allocated by a thread, the budgets cannot be checked");
+			System.exit(1);
+		}
+
+		var images = new LinkedHashMap<String, Helper.Image>();
+		try (Stream<Path> listing = Files.list(directory)) {
+			for (var file : listing.filter(f -> f.toString().endsWith(".png")).sorted().collect(Collectors.toList())) {
+				images.put(file.getFileName().toString(), Helper.readImage(file.toString()));
+			}
+		}
+		for (var content : CorpusGenerator.Content.values()) {
+			images.put(CorpusGenerator.name(content, size, size, 107), CorpusGenerator.generate(content, size, size, 107));
+		}
+
+		var fallback = Double.isNaN(encodeBudget) || Double.isNaN(decodeBudget) ? null : new Budget(encodeBudget, decodeBudget);
+		var measures = check(images, fixedBudget, BUDGETS, fallback, tolerance);
+		int failures = 0;
+		for (var measure : measures) {
+			System.out.printf(Locale.ROOT, "%-28s %-7s %10d px %14d bytes %8.2f bytes/px (budget %d + %.2f/px) %s%n",
+					measure.image(), measure.operation(), measure.pixels(), measure.bytes(), measure.bytesPerPixel(),
+					measure.fixed(), measure.budget(), Double.isNaN(measure.budget()) ? "NO BUDGET"
+							: measure.withinBudget() ? "OK" : "OVER BUDGET");
+			if (!measure.withinBudget()) {
+				failures++;
+			}
+		}
+		if (failures > 0) {
+			System.out.printf("%d measures over budget or without a budget%n", failures);
+			System.exit(1);
+		}
+		System.out.println("All the allocations are within budget");
+	}
+
+	// ==================================================================================
+	// ================================== HARNESS API ===================================
+	// ==================================================================================
+
+	/**
+	 * Measure the allocations of the encoding and the decoding of images
+	 *
+	 * @param images      (Map of String to Helper.Image) - Images to measure by name
+	 * @param fixedBudget (long) - Bytes allowed per call, whatever the number of pixels
+	 * @param budgets     (Map of String to Budget) - Budgets per pixel of the images by name
+	 * @param fallback    (Budget) - Budget of the images missing from budgets, null if they have none
+	 * @param tolerance   (double) - Margin over the budgets, as a fraction of them
+	 * @return (List of Measure) - Two measures per image, the encoding then the decoding. An
+	 * image without a budget has a budget of NaN, its measures are never within budget
+	 */
+	public static List<Measure> check(Map<String, Helper.Image> images, long fixedBudget, Map<String, Budget> budgets,
+	                                  Budget fallback, double tolerance) {
+		assert images != null && budgets != null && tolerance >= 0;
+		var measures = new ArrayList<Measure>();
+		for (var entry : images.entrySet()) {
+			var image = entry.getValue();
+			var budget = budgets.getOrDefault(entry.getKey(), fallback);
+			double encodeBudget = budget == null ? Double.NaN : budget.encode() * (1 + tolerance);
+			double decodeBudget = budget == null ? Double.NaN : budget.decode() * (1 + tolerance);
+			long pixels = (long) image.data().length * image.data()[0].length;
+			byte[] encoded = QOIEncoder.qoiFile(image);
+			measures.add(new Measure(entry.getKey(), "encode", pixels, allocatedBytes(() -> QOIEncoder.qoiFile(image)),
+					fixedBudget, encodeBudget));
+			measures.add(new Measure(entry.getKey(), "decode", pixels, allocatedBytes(() -> QOIDecoder.decodeQoiFile(encoded)),
+					fixedBudget, decodeBudget));
+		}
+		return measures;
+	}
+
+	/**
+	 * Measure the bytes allocated by an operation on the current thread
+	 *
+	 * @param operation (Operation) - Operation to measure
+	 * @return (long) - Smallest number of bytes allocated by a call, once warmed up
+	 * @throws RuntimeException if the JVM cannot measure the allocations of a thread
+	 */
+	private static long allocatedBytes(Operation operation) {
+		if (!THREADS.isThreadAllocatedMemorySupported()) {
+			Helper.fail("This JVM cannot measure the bytes allocated by a thread");
+		}
+		THREADS.setThreadAllocatedMemoryEnabled(true);
+		for (int i = 0; i < WARMUP; i++) {
+			sink = operation.run();
+		}
+		long smallest = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long before = THREADS.getCurrentThreadAllocatedBytes();
+			sink = operation.run();
+			smallest = Math.min(smallest, THREADS.getCurrentThreadAllocatedBytes() - before);
+		}
+		return smallest;
+	}
+
+}
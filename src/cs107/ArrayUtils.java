@@ -115,13 +115,29 @@ public final class ArrayUtils {
 
 		assert bytes != null && bytes.length == 4;
 
-		int result = 0xFF & bytes[0];
+		return toInt(bytes, 0);
+	}
+
+	/**
+	 * Create an Integer using 4 bytes of the given array, without copying them.
+	 * The bytes need to be considered as "Big Endian"
+	 *
+	 * @param bytes  (byte[]) - Array containing the 4 bytes
+	 * @param offset (int) - Index of the first byte
+	 * @return (int) - Integer representation of the 4 bytes
+	 * @throws AssertionError if the input is null or has less than 4 bytes after the offset
+	 */
+	public static int toInt(byte[] bytes, int offset) {
+
+		assert bytes != null && offset >= 0 && bytes.length - offset >= 4;
+
+		int result = 0xFF & bytes[offset];
 		result <<= 8;
-		result += 0xFF & bytes[1];
+		result += 0xFF & bytes[offset + 1];
 		result <<= 8;
-		result += 0xFF & bytes[2];
+		result += 0xFF & bytes[offset + 2];
 		result <<= 8;
-		result += 0xFF & bytes[3];
+		result += 0xFF & bytes[offset + 3];
 		return result;
 	}
 
@@ -134,13 +150,25 @@ public final class ArrayUtils {
 	 */
 	public static byte[] fromInt(int value) {
 		byte[] bytes = new byte[4];
+		fromInt(value, bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * Write the "Big Endian" representation of the Integer in an existing array
+	 *
+	 * @param value  (int) - The integer
+	 * @param output (byte[]) - Array where to write the 4 bytes
+	 * @param offset (int) - Index of the first byte
+	 * @throws AssertionError if the output is null or has less than 4 bytes after the offset
+	 */
+	public static void fromInt(int value, byte[] output, int offset) {
+		assert output != null && offset >= 0 && output.length - offset >= 4;
 
 		for (int i = 4; i > 0; i--) {
-			bytes[i - 1] = (byte) (0xFF & value);
+			output[offset + i - 1] = (byte) (0xFF & value);
 			value >>= 8;
 		}
-
-		return bytes;
 	}
 
 	// ==================================================================================
@@ -258,6 +286,8 @@ public final class ArrayUtils {
 	 * @return (byte [][]) - formatted image data
 	 * @throws AssertionError if the input is null
 	 *                        or one of the inner arrays of input is null
+	 * @throws RuntimeException if the image has more than Integer.MAX_VALUE pixels,
+	 *                          such images must be stored in a SegmentedImage
 	 */
 	public static byte[][] imageToChannels(int[][] input) {
 		assert input != null;
@@ -265,6 +295,11 @@ public final class ArrayUtils {
 		for (int[] ints : input) {
 			assert len == ints.length;
 		}
+		if ((long) input.length * len > Integer.MAX_VALUE) {
+			Helper.fail("Image of %d x %d pixels is too large, use SegmentedImage", len, input.length);
+		}
+		var event = new CodecEvents.PixelConversion("imageToChannels");
+		event.begin();
 		// each pixel is 4 byte
 		byte[][] channels = new byte[input.length * len][4];
 		int i = 0;
@@ -279,6 +314,7 @@ public final class ArrayUtils {
 				i++;
 			}
 		}
+		event.finish(len, input.length, 4, 4L * channels.length, 4L * channels.length);
 		return channels;
 	}
 
@@ -302,6 +338,8 @@ public final class ArrayUtils {
 		assert input != null;
 		assert input[0].length == 4;
 		assert input.length == height * width;
+		var event = new CodecEvents.PixelConversion("channelsToImage");
+		event.begin();
 
 		int[][] pixels = new int[height][width];
 
@@ -317,6 +355,7 @@ public final class ArrayUtils {
 			}
 		}
 
+		event.finish(width, height, 4, 4L * input.length, 4L * input.length);
 		return pixels;
 	}
 
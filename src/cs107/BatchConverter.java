@@ -0,0 +1,275 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Concurrent converter of whole directory trees.
+ * Every "PNG" file of the input tree is encoded to "QOI" and every "QOI" file is decoded
+ * to "PNG", at the same relative path in the output tree. File reads and writes run on
+ * an unbounded pool of I/O threads, while decoding and encoding run on a pool sized to
+ * the number of processors.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class BatchConverter {
+
+	/**
+	 * Outcome of the conversion of one file
+	 *
+	 * @param input       (Path) - Converted file
+	 * @param output      (Path) - Generated file
+	 * @param inputBytes  (long) - Size of the converted file
+	 * @param outputBytes (long) - Size of the generated file
+	 * @param pixels      (long) - Number of pixels of the image
+	 * @param nanos       (long) - Time spent converting the file, from the read to the write
+	 * @param stages      (StageTimer) - Time spent in each stage of the conversion
+	 * @param error       (Throwable) - Cause of the failure, null if the conversion succeeded
+	 */
+	public record FileResult(Path input, Path output, long inputBytes, long outputBytes, long pixels, long nanos,
+	                         StageTimer stages, Throwable error) {
+
+		/**
+		 * @return (double) - Throughput of the conversion in megapixels per second
+		 */
+		public double megapixelsPerSecond() {
+			return nanos == 0 ? 0 : pixels * 1e3 / nanos;
+		}
+	}
+
+	/**
+	 * Outcome of the conversion of a directory tree
+	 *
+	 * @param files (List of FileResult) - Outcome of each file, in the order of the directory walk
+	 * @param nanos (long) - Wall clock time of the whole conversion
+	 */
+	public record Report(List<FileResult> files, long nanos) {
+
+		/**
+		 * @return (long) - Number of files that could not be converted
+		 */
+		public long failures() {
+			return files.stream().filter(f -> f.error() != null).count();
+		}
+
+		/**
+		 * @return (long) - Total number of converted pixels
+		 */
+		public long pixels() {
+			return files.stream().mapToLong(FileResult::pixels).sum();
+		}
+
+		/**
+		 * @return (long) - Total size of the converted files
+		 */
+		public long inputBytes() {
+			return files.stream().mapToLong(FileResult::inputBytes).sum();
+		}
+
+		/**
+		 * @return (StageTimer) - Time spent in each stage, summed over all the files
+		 */
+		public StageTimer stages() {
+			var stages = new StageTimer();
+			for (var f : files) {
+				stages.add(f.stages());
+			}
+			return stages;
+		}
+
+		/**
+		 * Print one line per file and the totals
+		 *
+		 * @param out (PrintStream) - Where to print the report
+		 */
+		public void print(PrintStream out) {
+			for (var f : files) {
+				if (f.error() != null) {
+					out.printf("FAILED %s : %s%n", f.input(), f.error().getMessage());
+				} else {
+					out.printf(Locale.ROOT, "%s -> %s : %d -> %d bytes, %.2f ms, %.1f MP/s%n", f.input(), f.output(),
+							f.inputBytes(), f.outputBytes(), f.nanos() / 1e6, f.megapixelsPerSecond());
+				}
+			}
+			double seconds = nanos / 1e9;
+			out.printf(Locale.ROOT, "%d files (%d failed) in %.3f s : %.1f files/s, %.1f MP/s, %.1f MB/s read%n",
+					files.size(), failures(), seconds, files.size() / seconds, pixels() / 1e6 / seconds,
+					inputBytes() / 1e6 / seconds);
+			out.println("Stages : " + stages());
+		}
+	}
+
+	private final int cpuThreads;
+
+	/**
+	 * Create a converter using one encoding thread per processor
+	 */
+	public BatchConverter() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a converter
+	 *
+	 * @param cpuThreads (int) - Maximal number of images decoded or encoded at the same time
+	 */
+	public BatchConverter(int cpuThreads) {
+		assert cpuThreads > 0;
+		this.cpuThreads = cpuThreads;
+	}
+
+	// ==================================================================================
+	// =================================== BATCH API ====================================
+	// ==================================================================================
+
+	/**
+	 * Convert all the "PNG" and "QOI" files of a directory tree
+	 *
+	 * @param inputRoot  (Path) - Root of the tree to convert
+	 * @param outputRoot (Path) - Root of the tree where to write the generated files
+	 * @return (Report) - Outcome of the conversion
+	 * @throws UncheckedIOException if the input tree cannot be walked
+	 * @throws RuntimeException if one root contains the other : the outputs would overwrite the
+	 * inputs of the batch, or be converted again by the next one
+	 */
+	public Report convert(Path inputRoot, Path outputRoot) {
+		var realInput = real(inputRoot);
+		var realOutput = real(outputRoot);
+		if (realOutput.startsWith(realInput) || realInput.startsWith(realOutput)) {
+			Helper.fail("The output directory \"%s\" overlaps the input directory \"%s\"", outputRoot, inputRoot);
+		}
+		List<Path> inputs;
+		try (Stream<Path> walk = Files.walk(inputRoot)) {
+			inputs = walk.filter(Files::isRegularFile).filter(p -> outputName(p) != null).collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		ExecutorService io = Executors.newCachedThreadPool();
+		ExecutorService cpu = Executors.newFixedThreadPool(cpuThreads);
+		// bound the number of files in memory at the same time
+		var inFlight = new Semaphore(cpuThreads * 4);
+		long start = System.nanoTime();
+		try {
+			List<CompletableFuture<FileResult>> futures = new ArrayList<>(inputs.size());
+			for (var input : inputs) {
+				var output = outputRoot.resolve(inputRoot.relativize(input)).resolveSibling(outputName(input));
+				inFlight.acquireUninterruptibly();
+				futures.add(convert(input, output, io, cpu).whenComplete((r, e) -> inFlight.release()));
+			}
+			List<FileResult> results = new ArrayList<>(futures.size());
+			for (var future : futures) {
+				results.add(future.join());
+			}
+			return new Report(results, System.nanoTime() - start);
+		} finally {
+			io.shutdown();
+			cpu.shutdown();
+		}
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private record Converted(long inputBytes, byte[] content, long pixels) {
+	}
+
+	/**
+	 * @return (Path) - Real path of a directory, or of its closest existing ancestor followed by the
+	 * rest of the path, so that two paths of the same directory compare equal
+	 */
+	private static Path real(Path directory) {
+		var absolute = directory.toAbsolutePath().normalize();
+		for (var existing = absolute; existing != null; existing = existing.getParent()) {
+			try {
+				return existing.toRealPath().resolve(existing.relativize(absolute));
+			} catch (IOException e) {
+				// does not exist yet, try its parent
+			}
+		}
+		return absolute;
+	}
+
+	private static CompletableFuture<FileResult> convert(Path input, Path output, ExecutorService io, ExecutorService cpu) {
+		long start = System.nanoTime();
+		// the stages of a file run one after the other, so its timer is never shared
+		var stages = new StageTimer();
+		return CompletableFuture
+				.supplyAsync(() -> read(input, stages), io)
+				.thenApplyAsync(content -> convert(input, content, stages), cpu)
+				.thenApplyAsync(converted -> {
+					write(output, converted.content(), stages);
+					stages.count();
+					return new FileResult(input, output, converted.inputBytes(), converted.content().length,
+							converted.pixels(), System.nanoTime() - start, stages, null);
+				}, io)
+				.exceptionally(e -> new FileResult(input, output, 0, 0, 0, System.nanoTime() - start, stages,
+						e.getCause() != null ? e.getCause() : e));
+	}
+
+	private static Converted convert(Path input, byte[] content, StageTimer stages) {
+		if (isQoi(input)) {
+			var image = QOIDecoder.decodeQoiFile(content, stages);
+			return new Converted(content.length, Helper.encodePng(image, stages), pixels(image));
+		}
+		var image = Helper.decodeImage(content, stages);
+		return new Converted(content.length, QOIEncoder.qoiFile(image, stages), pixels(image));
+	}
+
+	private static long pixels(Helper.Image image) {
+		return (long) image.data().length * image.data()[0].length;
+	}
+
+	private static boolean isQoi(Path file) {
+		return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".qoi");
+	}
+
+	private static String outputName(Path file) {
+		var name = file.getFileName().toString();
+		var lower = name.toLowerCase(Locale.ROOT);
+		if (lower.endsWith(".png")) {
+			return name.substring(0, name.length() - 4) + ".qoi";
+		}
+		if (lower.endsWith(".qoi")) {
+			return name.substring(0, name.length() - 4) + ".png";
+		}
+		return null;
+	}
+
+	private static byte[] read(Path file, StageTimer stages) {
+		long mark = StageTimer.now(stages);
+		try {
+			var content = Files.readAllBytes(file);
+			StageTimer.lap(stages, StageTimer.Stage.READ, mark);
+			return content;
+		} catch (IOException e) {
+			return Helper.fail("An error occurred while trying to read from : \"%s\"%n", file);
+		}
+	}
+
+	private static void write(Path file, byte[] content, StageTimer stages) {
+		long mark = StageTimer.now(stages);
+		try {
+			Files.createDirectories(file.toAbsolutePath().getParent());
+			Files.write(file, content);
+			StageTimer.lap(stages, StageTimer.Stage.WRITE, mark);
+		} catch (IOException e) {
+			Helper.fail("An error occurred while trying to write to : \"%s\"%n", file);
+		}
+	}
+
+}
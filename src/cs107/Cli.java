@@ -0,0 +1,483 @@
+package cs107;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Command line front end of the codec.
+ * <pre>
+ * encode [--threads N] [-o OUTPUT] INPUT...            "PNG" to "QOI"
+ * decode [--threads N] [--rgba] [-o OUTPUT] INPUT...   "QOI" to "PNG" (or raw RGBA bytes)
+ * info   INPUT...                                      header of "QOI" files
+ * verify [--threads N] INPUT...                        structure and round-trip checks
+ * bench  [--iterations N] INPUT...                     encoding and decoding throughput
+ * stats  [--threads N] INPUT...                        operations used by the encoding
+ * </pre>
+ * INPUT can be a path, a glob (e.g. 'images/**.png') or '-' for the standard input.
+ * With a single input, OUTPUT is the output file ('-' for the standard output). With several
+ * inputs, OUTPUT is a directory; without OUTPUT, each file is written next to its input
+ * with the other extension. The exit status is 0 on success, 1 if a file failed and 2 on
+ * a usage error.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class Cli {
+
+	private static final String STDIO = "-";
+
+	// Hide default constructor
+	private Cli() {
+	}
+
+	/**
+	 * Parsed command line options
+	 *
+	 * @param threads    (int) - Number of files processed at the same time
+	 * @param iterations (int) - Number of iterations of the benchmark
+	 * @param output     (String) - Output file or directory, null if not given
+	 * @param rgba       (boolean) - Decode to raw RGBA bytes instead of "PNG"
+	 * @param inputs     (List of String) - Input paths or globs
+	 */
+	private record Options(int threads, int iterations, String output, boolean rgba, List<String> inputs) {
+	}
+
+	/**
+	 * Entry point of the command line
+	 *
+	 * @param args (String[]) - Subcommand followed by its options and inputs
+	 */
+	public static void main(String[] args) {
+		System.exit(run(args, System.in, System.out, System.err));
+	}
+
+	/**
+	 * Run a command
+	 *
+	 * @param args (String[]) - Subcommand followed by its options and inputs
+	 * @param in   (InputStream) - Standard input
+	 * @param out  (PrintStream) - Standard output
+	 * @param err  (PrintStream) - Standard error
+	 * @return (int) - Exit status
+	 */
+	public static int run(String[] args, InputStream in, PrintStream out, PrintStream err) {
+		if (args.length == 0) {
+			return usage(err, "missing subcommand");
+		}
+		Options options;
+		try {
+			options = parse(Arrays.copyOfRange(args, 1, args.length));
+		} catch (IllegalArgumentException e) {
+			return usage(err, e.getMessage());
+		}
+		if (options.inputs().isEmpty()) {
+			return usage(err, "missing input");
+		}
+		try {
+			return switch (args[0]) {
+				case "encode" -> convert(options, true, in, out, err);
+				case "decode" -> convert(options, false, in, out, err);
+				case "info" -> forEach(options, in, err, (file, input) -> info(file, input, out));
+				case "verify" -> forEach(options, in, err, (file, input) -> verify(file, input, out));
+				case "stats" -> forEach(options, in, err, (file, input) -> stats(file, input, out));
+				case "bench" -> forEach(new Options(1, options.iterations(), null, false, options.inputs()), in, err,
+						(file, input) -> bench(file, input, options.iterations(), out));
+				default -> usage(err, "unknown subcommand '" + args[0] + "'");
+			};
+		} catch (IllegalArgumentException e) {
+			return usage(err, e.getMessage());
+		} finally {
+			out.flush();
+		}
+	}
+
+	// ==================================================================================
+	// ==================================== COMMANDS ====================================
+	// ==================================================================================
+
+	private interface Task {
+		void run(Path file, InputStream input) throws IOException;
+	}
+
+	private interface Content {
+		void write(OutputStream output) throws IOException;
+	}
+
+	private static int convert(Options options, boolean encode, InputStream in, PrintStream out, PrintStream err) {
+		var files = expand(options.inputs());
+		boolean single = files.size() == 1;
+		if (options.rgba() && encode) {
+			throw new IllegalArgumentException("--rgba only applies to decode");
+		}
+		if (STDIO.equals(options.output()) && !single) {
+			throw new IllegalArgumentException("the standard output can only receive one file");
+		}
+		return forEach(options, in, err, (file, input) -> {
+			Path target = single && options.output() != null && !Files.isDirectory(Path.of(options.output()))
+					? outputPath(options.output())
+					: outputFor(file, options.output(), encode ? ".qoi" : options.rgba() ? ".rgba" : ".png");
+			write(target, out, output -> {
+				if (encode) {
+					output.write(QOIEncoder.qoiFile(Helper.decodeImage(input)));
+				} else if (options.rgba()) {
+					writeRgba(new QOIStreamDecoder(input), output);
+				} else {
+					Helper.encodePng(QOIDecoder.decodeQoiFile(input.readAllBytes()), output);
+				}
+			});
+		});
+	}
+
+	private static void info(Path file, InputStream input, PrintStream out) throws IOException {
+		var decoder = new QOIStreamDecoder(input);
+		print(out, String.format("%s: %d x %d, %d channels, color space %d", name(file),
+				decoder.width(), decoder.height(), decoder.channels(), decoder.colorSpace()));
+	}
+
+	private static void verify(Path file, InputStream input, PrintStream out) throws IOException {
+		byte[] content = input.readAllBytes();
+		Helper.Image image;
+		if (content.length >= 4 && ArrayUtils.equals(ArrayUtils.extract(content, 0, 4), QOISpecification.QOI_MAGIC)) {
+			// structure : every pixel present and followed by the end marker
+			var decoder = new QOIStreamDecoder(new ByteArrayInputStream(content));
+			for (long i = 0; i < decoder.pixelCount(); i++) {
+				decoder.readPixel();
+			}
+			decoder.finish();
+			if (decoder.bytesRead() != content.length) {
+				Helper.fail("%d trailing bytes after the end marker", content.length - decoder.bytesRead());
+			}
+			image = QOIDecoder.decodeQoiFile(content);
+		} else {
+			image = Helper.decodeImage(content);
+		}
+		// round trip : encoding then decoding gives back the same pixels
+		var decoded = QOIDecoder.decodeQoiFile(QOIEncoder.qoiFile(image));
+		if (!decoded.equals(image)) {
+			Helper.fail("the pixels differ after an encoding round trip");
+		}
+		print(out, name(file) + ": OK");
+	}
+
+	private static void stats(Path file, InputStream input, PrintStream out) throws IOException {
+		byte[] content = input.readAllBytes();
+		CodecStats stats;
+		if (content.length >= 4 && ArrayUtils.equals(ArrayUtils.extract(content, 0, 4), QOISpecification.QOI_MAGIC)) {
+			int[] header = QOIDecoder.decodeHeader(content, 0);
+			stats = new CodecStats(header[0], header[1]);
+			QOIDecoder.decodeData(content, QOISpecification.HEADER_SIZE,
+					content.length - QOISpecification.HEADER_SIZE - QOISpecification.QOI_EOF.length, header[0], header[1], stats);
+		} else {
+			var image = Helper.decodeImage(content);
+			stats = new CodecStats(image.data()[0].length, image.data().length);
+			QOIEncoder.encodeData(ArrayUtils.imageToChannels(image.data()), stats);
+		}
+		var text = new ByteArrayOutputStream();
+		try (var printer = new PrintStream(text, true, StandardCharsets.UTF_8)) {
+			printer.println(name(file) + ":");
+			stats.print(printer);
+		}
+		synchronized (out) {
+			out.print(text.toString(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static void bench(Path file, InputStream input, int iterations, PrintStream out) throws IOException {
+		byte[] content = input.readAllBytes();
+		var image = content.length >= 4 && ArrayUtils.equals(ArrayUtils.extract(content, 0, 4), QOISpecification.QOI_MAGIC)
+				? QOIDecoder.decodeQoiFile(content)
+				: Helper.decodeImage(content);
+		long pixels = (long) image.data().length * image.data()[0].length;
+		byte[] encoded = QOIEncoder.qoiFile(image);
+
+		long encodeNanos = Long.MAX_VALUE;
+		long decodeNanos = Long.MAX_VALUE;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			QOIEncoder.qoiFile(image);
+			long middle = System.nanoTime();
+			QOIDecoder.decodeQoiFile(encoded);
+			long end = System.nanoTime();
+			encodeNanos = Math.min(encodeNanos, middle - start);
+			decodeNanos = Math.min(decodeNanos, end - middle);
+		}
+		print(out, String.format(Locale.ROOT, "%s: %d px, %d bytes, encode %.2f ms (%.1f MP/s, %.1f MB/s), decode %.2f ms (%.1f MP/s, %.1f MB/s)",
+				name(file), pixels, encoded.length,
+				encodeNanos / 1e6, pixels * 1e3 / encodeNanos, pixels * 4e3 / encodeNanos,
+				decodeNanos / 1e6, pixels * 1e3 / decodeNanos, pixels * 4e3 / decodeNanos));
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private static Options parse(String[] args) {
+		int threads = 1;
+		int iterations = 10;
+		String output = null;
+		boolean rgba = false;
+		List<String> inputs = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--threads" -> threads = positive(args, ++i);
+				case "--iterations" -> iterations = positive(args, ++i);
+				case "-o", "--output" -> output = value(args, ++i);
+				case "--rgba" -> rgba = true;
+				default -> {
+					if (args[i].startsWith("--")) {
+						throw new IllegalArgumentException("unknown option '" + args[i] + "'");
+					}
+					inputs.add(args[i]);
+				}
+			}
+		}
+		return new Options(threads, iterations, output, rgba, inputs);
+	}
+
+	private static String value(String[] args, int i) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException("missing value for '" + args[i - 1] + "'");
+		}
+		return args[i];
+	}
+
+	private static int positive(String[] args, int i) {
+		try {
+			int value = Integer.parseInt(value(args, i));
+			if (value > 0) {
+				return value;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException("'" + args[i - 1] + "' expects a positive integer");
+	}
+
+	private static int usage(PrintStream err, String message) {
+		err.println("error: " + message);
+		err.println("usage: encode [--threads N] [-o OUTPUT] INPUT...");
+		err.println("       decode [--threads N] [--rgba] [-o OUTPUT] INPUT...");
+		err.println("       info INPUT...");
+		err.println("       verify [--threads N] INPUT...");
+		err.println("       bench [--iterations N] INPUT...");
+		err.println("       stats [--threads N] INPUT...");
+		err.println("INPUT is a path, a glob or '-' for the standard input");
+		return 2;
+	}
+
+	/**
+	 * Run a task on every input, in parallel when more than one thread is requested
+	 *
+	 * @return (int) - 0 if every task succeeded, 1 otherwise
+	 */
+	private static int forEach(Options options, InputStream in, PrintStream err, Task task) {
+		var files = expand(options.inputs());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(options.threads(), Math.max(1, files.size())));
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (var file : files) {
+				results.add(executor.submit(() -> {
+					try (var input = file == null ? nonClosing(in) : new BufferedInputStream(Files.newInputStream(file))) {
+						task.run(file, input);
+						return true;
+					} catch (IOException | RuntimeException | AssertionError e) {
+						// an assertion of the codec failing on a corrupted file only fails this file
+						print(err, name(file) + ": " + message(e));
+						return false;
+					}
+				}));
+			}
+			boolean ok = true;
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					ok &= results.get(i).get();
+				} catch (ExecutionException e) {
+					print(err, name(files.get(i)) + ": " + message(e.getCause()));
+					ok = false;
+				}
+			}
+			return ok ? 0 : 1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			print(err, "interrupted");
+			return 1;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Expand the globs of the inputs. '-' is represented by null
+	 */
+	private static List<Path> expand(List<String> inputs) {
+		List<Path> files = new ArrayList<>();
+		for (var input : inputs) {
+			if (STDIO.equals(input)) {
+				files.add(null);
+				continue;
+			}
+			int glob = firstGlobCharacter(input);
+			if (glob < 0) {
+				files.add(Path.of(input));
+				continue;
+			}
+			int separator = Math.max(input.lastIndexOf('/', glob), input.lastIndexOf('\\', glob));
+			var base = Path.of(separator < 0 ? "." : input.substring(0, separator + 1));
+			var matcher = FileSystems.getDefault().getPathMatcher("glob:" + input.substring(separator + 1));
+			try (Stream<Path> walk = Files.walk(base)) {
+				files.addAll(walk.filter(Files::isRegularFile)
+						.filter(p -> matcher.matches(base.relativize(p)))
+						.sorted()
+						.collect(Collectors.toList()));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		if (files.stream().filter(f -> f == null).count() > 1) {
+			throw new IllegalArgumentException("the standard input can only be read once");
+		}
+		return files;
+	}
+
+	private static int firstGlobCharacter(String input) {
+		for (int i = 0; i < input.length(); i++) {
+			if ("*?[{".indexOf(input.charAt(i)) >= 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return (Path) - Output path, null for the standard output
+	 */
+	private static Path outputPath(String output) {
+		return STDIO.equals(output) ? null : Path.of(output);
+	}
+
+	/**
+	 * @return (Path) - Output path of an input, null for the standard output
+	 */
+	private static Path outputFor(Path file, String directory, String extension) throws IOException {
+		if (file == null && directory == null) {
+			return null;
+		}
+		if (file == null) {
+			throw new IllegalArgumentException("the output of the standard input must be a file");
+		}
+		var name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		name = (dot > 0 ? name.substring(0, dot) : name) + extension;
+		if (directory == null) {
+			return file.resolveSibling(name);
+		}
+		Files.createDirectories(Path.of(directory));
+		return Path.of(directory).resolve(name);
+	}
+
+	/**
+	 * Write a file through a temporary file of the same directory, moved over the target once
+	 * complete : a failed conversion leaves the previous target, if any, and no partial file
+	 *
+	 * @param target  (Path) - File to write, null for the standard output
+	 * @param out     (PrintStream) - Standard output
+	 * @param content (Content) - Writes the content of the file
+	 */
+	private static void write(Path target, PrintStream out, Content content) throws IOException {
+		if (target == null) {
+			try (var output = nonClosing(out)) {
+				content.write(output);
+			}
+			return;
+		}
+		var temporary = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName() + ".", ".tmp");
+		boolean moved = false;
+		try {
+			try (var output = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+				content.write(output);
+			}
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+		} finally {
+			if (!moved) {
+				deleteQuietly(temporary);
+			}
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// the conversion already failed, its error is the one reported
+		}
+	}
+
+	private static void writeRgba(QOIStreamDecoder decoder, OutputStream output) throws IOException {
+		for (long i = 0; i < decoder.pixelCount(); i++) {
+			int pixel = decoder.readPixel();
+			output.write(pixel >> 16);
+			output.write(pixel >> 8);
+			output.write(pixel);
+			output.write(pixel >> 24);
+		}
+		decoder.finish();
+	}
+
+	private static String message(Throwable e) {
+		return e.getMessage() != null ? e.getMessage() : e.toString();
+	}
+
+	private static String name(Path file) {
+		return file == null ? "<stdin>" : file.toString();
+	}
+
+	private static void print(PrintStream stream, String line) {
+		synchronized (stream) {
+			stream.println(line);
+		}
+	}
+
+	private static InputStream nonClosing(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public void close() {
+				// the standard input stays open
+			}
+		};
+	}
+
+	private static OutputStream nonClosing(OutputStream out) {
+		return new BufferedOutputStream(out) {
+			@Override
+			public void close() throws IOException {
+				// the standard output stays open
+				flush();
+			}
+		};
+	}
+
+}
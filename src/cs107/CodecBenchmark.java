@@ -0,0 +1,251 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Throughput benchmark of the hot paths of the codec.
+ * For each image, the following operations are measured :
+ * <ul>
+ *     <li>ArrayUtils.imageToChannels and ArrayUtils.channelsToImage</li>
+ *     <li>QOIEncoder.encodeData and QOIDecoder.decodeData</li>
+ *     <li>QOIDecoder.decodeHeader</li>
+ *     <li>The round trip QOIEncoder.qoiFile then QOIDecoder.decodeQoiFile</li>
+ * </ul>
+ * Each operation is first run for a number of warm-up samples so the JIT compiles it, then
+ * measured for a number of samples. A sample repeats the operation until it lasts at least
+ * a minimum time, so the small images are measured as precisely as the large ones. The results
+ * are reported in pixels per second and in megabytes of raw RGBA pixels per second.
+ * <pre>
+ * java -cp out cs107.CodecBenchmark [--warmup N] [--samples N] [--min-millis N] [FILE or DIRECTORY...]
+ * </pre>
+ * Without arguments, every "PNG" image of 'references/' is measured. Run it without '-ea',
+ * the assertions of the codec are part of what would be measured otherwise.
+ * <p>
+ * This is a hand-rolled harness, which needs nothing but the JDK : all the operations run in one
+ * JVM, so they share the JIT profile, and there are no forks, no Blackhole and no control of dead
+ * code beyond keeping the results. Use the results to compare runs on the same machine and to
+ * spot large regressions. The JMH benchmarks of the same operations, in the 'bench/' Maven module,
+ * give the figures to publish.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class CodecBenchmark {
+
+	/**
+	 * Measure of one operation on one image
+	 *
+	 * @param image       (String) - Name of the image
+	 * @param operation   (String) - Name of the operation
+	 * @param pixels      (long) - Number of pixels handled by one call, 0 if not relevant
+	 * @param bytes       (long) - Number of bytes handled by one call
+	 * @param calls       (long) - Number of calls measured
+	 * @param bestNanos   (long) - Duration of the fastest call
+	 * @param medianNanos (long) - Median duration of a call over the samples
+	 */
+	public record Result(String image, String operation, long pixels, long bytes, long calls, long bestNanos,
+	                     long medianNanos) {
+
+		/**
+		 * @return (double) - Pixels per second of the median call
+		 */
+		public double pixelsPerSecond() {
+			return pixels * 1e9 / medianNanos;
+		}
+
+		/**
+		 * @return (double) - Megabytes per second of the median call
+		 */
+		public double megabytesPerSecond() {
+			return bytes * 1e3 / medianNanos;
+		}
+	}
+
+	/**
+	 * An operation returning its result, so the JIT cannot remove it
+	 */
+	interface Operation {
+		Object run();
+	}
+
+	private static final int DEFAULT_WARMUP = 5;
+	private static final int DEFAULT_SAMPLES = 10;
+	private static final long DEFAULT_MIN_MILLIS = 50;
+
+	// Written with the results of the operations, so they are never dead code
+	private static Object last;
+	private static volatile Object sink;
+
+	// Hide default constructor
+	private CodecBenchmark() {
+	}
+
+	/**
+	 * Run the benchmark from the command line
+	 *
+	 * @param args (String[]) - Options then files or directories of images
+	 * @throws IOException if an image cannot be listed
+	 */
+	public static void main(String[] args) throws IOException {
+		int warmup = DEFAULT_WARMUP;
+		int samples = DEFAULT_SAMPLES;
+		long minMillis = DEFAULT_MIN_MILLIS;
+		var paths = new ArrayList<Path>();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+				case "--samples" -> samples = Integer.parseInt(args[++i]);
+				case "--min-millis" -> minMillis = Long.parseLong(args[++i]);
+				default -> paths.add(Path.of(args[i]));
+			}
+		}
+		if (paths.isEmpty()) {
+			paths.add(Path.of("references"));
+		}
+
+		var results = new ArrayList<Result>();
+		for (var file : images(paths)) {
+			var name = file.getFileName().toString();
+			results.addAll(run(name, load(file), warmup, samples, minMillis * 1_000_000));
+		}
+		print(results, System.out);
+	}
+
+	// ==================================================================================
+	// ================================= BENCHMARK API ==================================
+	// ==================================================================================
+
+	/**
+	 * Measure all the operations on an image
+	 *
+	 * @param name     (String) - Name of the image in the results
+	 * @param image    (Helper.Image) - Image to measure
+	 * @param warmup   (int) - Number of samples run before measuring
+	 * @param samples  (int) - Number of samples measured
+	 * @param minNanos (long) - Minimum duration of a sample
+	 * @return (List of Result) - One result per operation
+	 */
+	public static List<Result> run(String name, Helper.Image image, int warmup, int samples, long minNanos) {
+		assert image != null && warmup >= 0 && samples > 0 && minNanos >= 0;
+		int height = image.data().length;
+		int width = image.data()[0].length;
+		long pixels = (long) width * height;
+		long raw = pixels * 4;
+
+		byte[][] channels = ArrayUtils.imageToChannels(image.data());
+		byte[] data = QOIEncoder.encodeData(channels);
+		byte[] header = QOIEncoder.qoiHeader(image);
+
+		var results = new ArrayList<Result>();
+		results.add(measure(name, "imageToChannels", pixels, raw, warmup, samples, minNanos,
+				() -> ArrayUtils.imageToChannels(image.data())));
+		results.add(measure(name, "channelsToImage", pixels, raw, warmup, samples, minNanos,
+				() -> ArrayUtils.channelsToImage(channels, height, width)));
+		results.add(measure(name, "encodeData", pixels, raw, warmup, samples, minNanos,
+				() -> QOIEncoder.encodeData(channels)));
+		results.add(measure(name, "decodeData", pixels, raw, warmup, samples, minNanos,
+				() -> QOIDecoder.decodeData(data, width, height)));
+		results.add(measure(name, "decodeHeader", 0, header.length, warmup, samples, minNanos,
+				() -> QOIDecoder.decodeHeader(header)));
+		results.add(measure(name, "roundTrip", pixels, raw, warmup, samples, minNanos,
+				() -> QOIDecoder.decodeQoiFile(QOIEncoder.qoiFile(image))));
+		return results;
+	}
+
+	/**
+	 * Print results as a table
+	 *
+	 * @param results (List of Result) - Results to print
+	 * @param out     (PrintStream) - Where to print
+	 */
+	public static void print(List<Result> results, PrintStream out) {
+		out.printf(Locale.ROOT, "%-24s %-16s %12s %12s %12s %10s%n", "image", "operation", "calls", "median us", "MP/s", "MB/s");
+		for (var result : results) {
+			out.printf(Locale.ROOT, "%-24s %-16s %12d %12.2f %12s %10.1f%n", result.image(), result.operation(),
+					result.calls(), result.medianNanos() / 1e3,
+					result.pixels() == 0 ? "-" : String.format(Locale.ROOT, "%.1f", result.pixelsPerSecond() / 1e6),
+					result.megabytesPerSecond());
+		}
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	/**
+	 * Measure one operation
+	 *
+	 * @param image     (String) - Name of the image in the result
+	 * @param operation (String) - Name of the operation in the result
+	 * @param pixels    (long) - Number of pixels handled by one call, 0 if not relevant
+	 * @param bytes     (long) - Number of bytes handled by one call
+	 * @param warmup    (int) - Number of samples run before measuring
+	 * @param samples   (int) - Number of samples measured
+	 * @param minNanos  (long) - Minimum duration of a sample
+	 * @param body      (Operation) - Operation to measure
+	 * @return (Result) - The measure
+	 */
+	static Result measure(String image, String operation, long pixels, long bytes, int warmup, int samples,
+	                      long minNanos, Operation body) {
+		// start from a clean heap, the garbage of the previous measures is not charged to this one
+		System.gc();
+		// calibration : number of calls for a sample to last at least minNanos
+		long repetitions = 1;
+		while (true) {
+			long nanos = sample(body, repetitions);
+			if (nanos >= minNanos || repetitions >= 1L << 30) {
+				break;
+			}
+			repetitions = nanos <= 0 ? repetitions * 16 : Math.max(repetitions * 2, repetitions * minNanos / nanos + 1);
+		}
+		for (int i = 0; i < warmup; i++) {
+			sample(body, repetitions);
+		}
+		long[] perCall = new long[samples];
+		for (int i = 0; i < samples; i++) {
+			perCall[i] = Math.max(1, sample(body, repetitions) / repetitions);
+		}
+		Arrays.sort(perCall);
+		return new Result(image, operation, pixels, bytes, repetitions * samples, perCall[0], perCall[samples / 2]);
+	}
+
+	private static long sample(Operation body, long repetitions) {
+		long start = System.nanoTime();
+		for (long i = 0; i < repetitions; i++) {
+			last = body.run();
+		}
+		long nanos = System.nanoTime() - start;
+		sink = last;
+		return nanos;
+	}
+
+	private static List<Path> images(List<Path> paths) throws IOException {
+		var files = new ArrayList<Path>();
+		for (var path : paths) {
+			if (Files.isDirectory(path)) {
+				try (Stream<Path> listing = Files.list(path)) {
+					files.addAll(listing.filter(file -> file.getFileName().toString().endsWith(".png"))
+							.sorted().collect(Collectors.toList()));
+				}
+			} else {
+				files.add(path);
+			}
+		}
+		return files;
+	}
+
+	private static Helper.Image load(Path file) {
+		var name = file.toString();
+		return name.endsWith(".qoi") ? QOIDecoder.decodeQoiFile(Helper.read(name)) : Helper.readImage(name);
+	}
+
+}
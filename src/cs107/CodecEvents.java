@@ -0,0 +1,139 @@
+package cs107;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events of the phases of the codec.
+ * Each phase creates an event before starting and ends it once done : the event is only
+ * filled and committed when a recording enabling it is running, otherwise it does not escape
+ * and the JIT removes it, so the events can stay enabled in continuous recordings.
+ * <pre>
+ * java -XX:StartFlightRecording=filename=codec.jfr -cp out cs107.Main
+ * jfr print --categories QOI codec.jfr
+ * </pre>
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+final class CodecEvents {
+
+	// Hide default constructor
+	private CodecEvents() {
+	}
+
+	/**
+	 * Fields shared by all the events, the duration is recorded by JFR
+	 */
+	@Category({"QOI"})
+	@StackTrace(false)
+	abstract static class ImageEvent extends Event {
+
+		@Label("Width")
+		long width;
+
+		@Label("Height")
+		long height;
+
+		@Label("Channels")
+		int channels;
+
+		@Label("Input Bytes")
+		@DataAmount
+		long inputBytes;
+
+		@Label("Output Bytes")
+		@DataAmount
+		long outputBytes;
+
+		/**
+		 * End the event and commit it if it is recorded
+		 *
+		 * @param width       (long) - Width of the image
+		 * @param height      (long) - Height of the image
+		 * @param channels    (int) - Number of channels of the image
+		 * @param inputBytes  (long) - Number of bytes read by the phase
+		 * @param outputBytes (long) - Number of bytes produced by the phase
+		 */
+		final void finish(long width, long height, int channels, long inputBytes, long outputBytes) {
+			if (shouldCommit()) {
+				this.width = width;
+				this.height = height;
+				this.channels = channels;
+				this.inputBytes = inputBytes;
+				this.outputBytes = outputBytes;
+				commit();
+			}
+		}
+	}
+
+	@Name("cs107.HeaderParse")
+	@Label("QOI Header Parse")
+	@Description("QOIDecoder.decodeHeader")
+	static final class HeaderParse extends ImageEvent {
+	}
+
+	@Name("cs107.PixelConversion")
+	@Label("QOI Pixel Conversion")
+	@Description("ArrayUtils.imageToChannels or ArrayUtils.channelsToImage, the bytes are the raw RGBA pixels")
+	static final class PixelConversion extends ImageEvent {
+
+		@Label("Conversion")
+		String conversion;
+
+		PixelConversion(String conversion) {
+			this.conversion = conversion;
+		}
+	}
+
+	@Name("cs107.Encode")
+	@Label("QOI Encode")
+	@Description("QOIEncoder.qoiFile or encodeData, or QOIStreamEncoder from the first pixel to finish(), "
+			+ "the input bytes are the raw RGBA pixels and the dimensions are 0 for encodeData")
+	static final class Encode extends ImageEvent {
+
+		@Label("Entry Point")
+		String entryPoint;
+
+		Encode(String entryPoint) {
+			this.entryPoint = entryPoint;
+		}
+	}
+
+	@Name("cs107.Decode")
+	@Label("QOI Decode")
+	@Description("QOIDecoder.decodeQoiFile or decodeData, or QOIStreamDecoder from the first pixel to finish(), "
+			+ "the output bytes are the raw RGBA pixels and the channels are 0 for decodeData")
+	static final class Decode extends ImageEvent {
+
+		@Label("Entry Point")
+		String entryPoint;
+
+		Decode(String entryPoint) {
+			this.entryPoint = entryPoint;
+		}
+	}
+
+	@Name("cs107.FileIO")
+	@Label("QOI File I/O")
+	@Description("Files read and written by Helper, the image fields are 0 for binary files")
+	static final class FileIO extends ImageEvent {
+
+		@Label("Operation")
+		String operation;
+
+		@Label("Path")
+		String path;
+
+		FileIO(String operation, String path) {
+			this.operation = operation;
+			this.path = path;
+		}
+	}
+
+}
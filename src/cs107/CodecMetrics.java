@@ -0,0 +1,290 @@
+package cs107;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cumulative metrics of the codec for long-running processes, published over JMX.
+ * Every image encoded or decoded is counted, by QOIEncoder.qoiFile and encodeData,
+ * QOIDecoder.decodeQoiFile and decodeData, and the stream encoder and decoder from their first
+ * pixel to finish() : number of images and pixels, bytes in and out, failures, operations in
+ * flight, and the latency histograms. All the counters are striped (LongAdder), so the worker threads
+ * never contend on them. The metrics are always collected, they are only visible in JMX
+ * clients (jconsole, VisualVM ...) once register() has been called. The operations run in
+ * unrecorded() (e.g. a warm up) are left out.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class CodecMetrics implements CodecMetricsMBean {
+
+	/**
+	 * Operations measured
+	 */
+	enum Operation {
+		ENCODE, DECODE
+	}
+
+	/**
+	 * Counters of one operation
+	 */
+	private static final class Counters {
+		private final LongAdder started = new LongAdder();
+		private final LongAdder completed = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private final LongAdder inFlight = new LongAdder();
+		private final LongAdder pixels = new LongAdder();
+		private final LongAdder bytesIn = new LongAdder();
+		private final LongAdder bytesOut = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		private void reset() {
+			started.reset();
+			completed.reset();
+			failures.reset();
+			pixels.reset();
+			bytesIn.reset();
+			bytesOut.reset();
+			latency.reset();
+		}
+	}
+
+	/** Name of the MBean */
+	public static final String NAME = "cs107:type=CodecMetrics";
+
+	private static final CodecMetrics INSTANCE = new CodecMetrics();
+
+	// Whether the operations of the current thread are left out of the metrics
+	private static final ThreadLocal<Boolean> UNRECORDED = ThreadLocal.withInitial(() -> false);
+
+	private final Counters encode = new Counters();
+	private final Counters decode = new Counters();
+	private volatile long resetNanos = System.nanoTime();
+
+	// Hide default constructor
+	private CodecMetrics() {
+	}
+
+	/**
+	 * @return (CodecMetrics) - Metrics of the process
+	 */
+	public static CodecMetrics instance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Publish the metrics in the platform MBean server, nothing happens if they already are
+	 *
+	 * @throws RuntimeException if the MBean cannot be registered
+	 */
+	public static void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(NAME));
+		} catch (InstanceAlreadyExistsException e) {
+			// already published
+		} catch (JMException e) {
+			Helper.fail("Cannot register the MBean %s : %s", NAME, e.getMessage());
+		}
+	}
+
+	/**
+	 * Run an action whose operations are not recorded, e.g. a warm up on synthetic images.
+	 * Only the operations of the current thread that start and end in the action are left out
+	 *
+	 * @param action (Runnable) - Action to run
+	 */
+	static void unrecorded(Runnable action) {
+		UNRECORDED.set(true);
+		try {
+			action.run();
+		} finally {
+			UNRECORDED.set(false);
+		}
+	}
+
+	// ==================================================================================
+	// ================================ RECORDING METHODS ===============================
+	// ==================================================================================
+
+	/**
+	 * Record the start of an operation, it must be followed by leave()
+	 *
+	 * @param operation (Operation) - Operation starting
+	 * @return (long) - Start time to give to complete()
+	 */
+	long enter(Operation operation) {
+		if (UNRECORDED.get()) {
+			return 0;
+		}
+		var counters = counters(operation);
+		counters.started.increment();
+		counters.inFlight.increment();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record the success of an operation
+	 *
+	 * @param operation (Operation) - Operation completed
+	 * @param start     (long) - Value returned by enter()
+	 * @param pixels    (long) - Number of pixels of the image
+	 * @param bytesIn   (long) - Number of bytes read
+	 * @param bytesOut  (long) - Number of bytes produced
+	 */
+	void complete(Operation operation, long start, long pixels, long bytesIn, long bytesOut) {
+		if (UNRECORDED.get()) {
+			return;
+		}
+		var counters = counters(operation);
+		counters.latency.record(System.nanoTime() - start);
+		counters.pixels.add(pixels);
+		counters.bytesIn.add(bytesIn);
+		counters.bytesOut.add(bytesOut);
+		counters.completed.increment();
+	}
+
+	/**
+	 * Record the end of an operation, whether it completed or failed
+	 *
+	 * @param operation (Operation) - Operation ending
+	 * @param completed (boolean) - Whether complete() was called, the operation failed otherwise
+	 */
+	void leave(Operation operation, boolean completed) {
+		if (UNRECORDED.get()) {
+			return;
+		}
+		var counters = counters(operation);
+		if (!completed) {
+			counters.failures.increment();
+		}
+		counters.inFlight.decrement();
+	}
+
+	// ==================================================================================
+	// =================================== MBEAN API ====================================
+	// ==================================================================================
+
+	@Override
+	public long getImagesEncoded() {
+		return encode.completed.sum();
+	}
+
+	@Override
+	public long getImagesDecoded() {
+		return decode.completed.sum();
+	}
+
+	@Override
+	public long getPixelsEncoded() {
+		return encode.pixels.sum();
+	}
+
+	@Override
+	public long getPixelsDecoded() {
+		return decode.pixels.sum();
+	}
+
+	@Override
+	public long getEncodeBytesIn() {
+		return encode.bytesIn.sum();
+	}
+
+	@Override
+	public long getEncodeBytesOut() {
+		return encode.bytesOut.sum();
+	}
+
+	@Override
+	public long getDecodeBytesIn() {
+		return decode.bytesIn.sum();
+	}
+
+	@Override
+	public long getDecodeBytesOut() {
+		return decode.bytesOut.sum();
+	}
+
+	@Override
+	public long getEncodeFailures() {
+		return encode.failures.sum();
+	}
+
+	@Override
+	public long getDecodeFailures() {
+		return decode.failures.sum();
+	}
+
+	@Override
+	public long getEncodesInFlight() {
+		return encode.inFlight.sum();
+	}
+
+	@Override
+	public long getDecodesInFlight() {
+		return decode.inFlight.sum();
+	}
+
+	@Override
+	public double getEncodePixelsPerSecond() {
+		return perSecond(encode.pixels.sum());
+	}
+
+	@Override
+	public double getDecodePixelsPerSecond() {
+		return perSecond(decode.pixels.sum());
+	}
+
+	@Override
+	public double getEncodeLatencyP50() {
+		return encode.latency.percentile(50) / 1e6;
+	}
+
+	@Override
+	public double getEncodeLatencyP99() {
+		return encode.latency.percentile(99) / 1e6;
+	}
+
+	@Override
+	public double getEncodeLatencyP999() {
+		return encode.latency.percentile(99.9) / 1e6;
+	}
+
+	@Override
+	public double getDecodeLatencyP50() {
+		return decode.latency.percentile(50) / 1e6;
+	}
+
+	@Override
+	public double getDecodeLatencyP99() {
+		return decode.latency.percentile(99) / 1e6;
+	}
+
+	@Override
+	public double getDecodeLatencyP999() {
+		return decode.latency.percentile(99.9) / 1e6;
+	}
+
+	@Override
+	public void reset() {
+		encode.reset();
+		decode.reset();
+		resetNanos = System.nanoTime();
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private Counters counters(Operation operation) {
+		return operation == Operation.ENCODE ? encode : decode;
+	}
+
+	private double perSecond(long count) {
+		long nanos = System.nanoTime() - resetNanos;
+		return nanos <= 0 ? 0 : count * 1e9 / nanos;
+	}
+
+}
@@ -0,0 +1,57 @@
+package cs107;
+
+/**
+ * Management interface of CodecMetrics, published under the name "cs107:type=CodecMetrics".
+ * The durations are in milliseconds and the rates are averages since the last reset.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public interface CodecMetricsMBean {
+
+	long getImagesEncoded();
+
+	long getImagesDecoded();
+
+	long getPixelsEncoded();
+
+	long getPixelsDecoded();
+
+	long getEncodeBytesIn();
+
+	long getEncodeBytesOut();
+
+	long getDecodeBytesIn();
+
+	long getDecodeBytesOut();
+
+	long getEncodeFailures();
+
+	long getDecodeFailures();
+
+	long getEncodesInFlight();
+
+	long getDecodesInFlight();
+
+	double getEncodePixelsPerSecond();
+
+	double getDecodePixelsPerSecond();
+
+	double getEncodeLatencyP50();
+
+	double getEncodeLatencyP99();
+
+	double getEncodeLatencyP999();
+
+	double getDecodeLatencyP50();
+
+	double getDecodeLatencyP99();
+
+	double getDecodeLatencyP999();
+
+	/**
+	 * Set all the counters and histograms back to 0, the operations in flight excepted
+	 */
+	void reset();
+
+}
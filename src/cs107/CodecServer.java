@@ -0,0 +1,314 @@
+package cs107;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP server exposing the codec to other local processes.
+ * <ul>
+ *     <li>POST /encode : "PNG" body, "QOI" response</li>
+ *     <li>POST /decode : "QOI" body, "PNG" response, or raw RGBA bytes with ?format=rgba</li>
+ *     <li>POST /info : "QOI" body (only the header is read), text response with the header fields</li>
+ *     <li>GET /metrics : text response with the count and latency percentiles of each endpoint</li>
+ * </ul>
+ * Request bodies are read directly by the decoders, and the RGBA response is streamed row by row.
+ * The sizes read from a "QOI" header, or from the IHDR chunk of a "PNG" body, are checked before
+ * anything is allocated : an image wider or higher than MAX_DIMENSION, or held in memory with more
+ * than MAX_PIXELS, is answered with 413, as a "PNG" body longer than MAX_BODY. Any other path
+ * is answered with 404. The requests run on a fixed number of threads, the others wait for one of
+ * them. The codec metrics are published over JMX (see CodecMetrics).
+ * <pre>
+ * java -cp out cs107.CodecServer [--port N] [--threads N]
+ * </pre>
+ * The server only listens on the loopback interface, on port 8107 by default.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class CodecServer implements Closeable {
+
+	/** Largest width or height of a "QOI" image accepted by /decode */
+	public static final long MAX_DIMENSION = 1 << 16;
+
+	/** Largest number of pixels of a "QOI" image decoded to "PNG", which is held in memory */
+	public static final long MAX_PIXELS = 1 << 24;
+
+	/** Largest "PNG" body accepted by /encode, which is held in memory */
+	public static final int MAX_BODY = 1 << 26;
+
+	/** Default port of main */
+	public static final int PORT = 8107;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+
+	/**
+	 * Create a server with one thread per processor, it does not accept connections before start() is called
+	 *
+	 * @param address (InetSocketAddress) - Address to bind, port 0 picks a free port
+	 * @throws IOException if the address cannot be bound
+	 */
+	public CodecServer(InetSocketAddress address) throws IOException {
+		this(address, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a server, it does not accept connections before start() is called
+	 *
+	 * @param address (InetSocketAddress) - Address to bind, port 0 picks a free port
+	 * @param threads (int) - Number of requests served at the same time
+	 * @throws IOException if the address cannot be bound
+	 */
+	public CodecServer(InetSocketAddress address, int threads) throws IOException {
+		assert threads > 0;
+		CodecMetrics.register();
+		this.server = HttpServer.create(address, 0);
+		this.executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		handle("/encode", "POST", this::encode);
+		handle("/decode", "POST", this::decode);
+		handle("/info", "POST", this::info);
+		handle("/metrics", "GET", this::metrics);
+	}
+
+	/**
+	 * Serve the codec on the loopback interface until the process is stopped
+	 *
+	 * @param args (String[]) - Options
+	 * @throws IOException if the port cannot be bound
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = PORT;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean valid = true;
+		for (int i = 0; i < args.length && valid; i++) {
+			switch (args[i]) {
+				case "--port" -> {
+					valid = ++i < args.length && args[i].matches("\\d{1,5}") && Integer.parseInt(args[i]) <= 0xFFFF;
+					port = valid ? Integer.parseInt(args[i]) : port;
+				}
+				case "--threads" -> {
+					valid = ++i < args.length && args[i].matches("\\d{1,4}") && Integer.parseInt(args[i]) > 0;
+					threads = valid ? Integer.parseInt(args[i]) : threads;
+				}
+				default -> valid = false;
+			}
+		}
+		if (!valid) {
+			System.err.println("usage : java cs107.CodecServer [--port N] [--threads N]");
+			System.exit(2);
+		}
+		var server = new CodecServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), threads);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+		server.start();
+		System.out.println("Serving on http://" + server.address().getHostString() + ":" + server.address().getPort());
+	}
+
+	// ==================================================================================
+	// =================================== SERVER API ===================================
+	// ==================================================================================
+
+	/**
+	 * Start accepting connections
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * @return (InetSocketAddress) - Address the server is bound to
+	 */
+	public InetSocketAddress address() {
+		return server.getAddress();
+	}
+
+	/**
+	 * Stop the server, the requests in progress have one second to complete
+	 */
+	@Override
+	public void close() {
+		server.stop(1);
+		executor.shutdown();
+	}
+
+	// ==================================================================================
+	// ==================================== ENDPOINTS ===================================
+	// ==================================================================================
+
+	private interface Endpoint {
+		void serve(HttpExchange exchange) throws IOException;
+	}
+
+	private void encode(HttpExchange exchange) throws IOException {
+		// the body and the header come from the client, nothing is allocated from them before these checks
+		var length = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (length != null && length.matches("\\d+") && (length.length() > 10 || Long.parseLong(length) > MAX_BODY)) {
+			send(exchange, 413, String.format("Body of %s bytes is longer than %d bytes%n", length, MAX_BODY));
+			return;
+		}
+		var content = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+		if (content.length > MAX_BODY) {
+			send(exchange, 413, String.format("Body is longer than %d bytes%n", MAX_BODY));
+			return;
+		}
+		// 8 bytes signature, 4 bytes chunk length, 4 bytes "IHDR", then width and height
+		if (content.length >= 24 && content[12] == 'I' && content[13] == 'H' && content[14] == 'D' && content[15] == 'R') {
+			long width = Integer.toUnsignedLong(ArrayUtils.toInt(content, 16));
+			long height = Integer.toUnsignedLong(ArrayUtils.toInt(content, 20));
+			if (width > MAX_DIMENSION || height > MAX_DIMENSION || width * height > MAX_PIXELS) {
+				send(exchange, 413, String.format("Image of %d x %d pixels is larger than %d pixels%n", width, height, MAX_PIXELS));
+				return;
+			}
+		}
+		var image = Helper.decodeImage(content);
+		var qoi = QOIEncoder.qoiFile(image);
+		exchange.getResponseHeaders().set("Content-Type", "image/qoi");
+		exchange.sendResponseHeaders(200, qoi.length);
+		try (var output = exchange.getResponseBody()) {
+			output.write(qoi);
+		}
+	}
+
+	private void decode(HttpExchange exchange) throws IOException {
+		var decoder = new QOIStreamDecoder(exchange.getRequestBody());
+		var headers = exchange.getResponseHeaders();
+		headers.set("X-Width", Long.toString(decoder.width()));
+		headers.set("X-Height", Long.toString(decoder.height()));
+		headers.set("X-Channels", Byte.toString(decoder.channels()));
+		// the header comes from the client, nothing is allocated from it before these checks
+		if (decoder.width() > MAX_DIMENSION || decoder.height() > MAX_DIMENSION) {
+			send(exchange, 413, String.format("Image of %d x %d pixels is larger than %d x %d%n",
+					decoder.width(), decoder.height(), MAX_DIMENSION, MAX_DIMENSION));
+			return;
+		}
+		boolean rgba = "format=rgba".equals(exchange.getRequestURI().getQuery());
+		if (!rgba && decoder.pixelCount() > MAX_PIXELS) {
+			send(exchange, 413, String.format("Image of %d pixels is larger than %d pixels%n", decoder.pixelCount(), MAX_PIXELS));
+			return;
+		}
+		int[] row = new int[(int) decoder.width()];
+
+		if (rgba) {
+			headers.set("Content-Type", "application/octet-stream");
+			exchange.sendResponseHeaders(200, decoder.pixelCount() * 4);
+			byte[] bytes = new byte[row.length * 4];
+			try (var output = new BufferedOutputStream(exchange.getResponseBody())) {
+				for (long y = 0; y < decoder.height(); y++) {
+					decoder.readRow(row);
+					for (int x = 0; x < row.length; x++) {
+						int pixel = row[x];
+						bytes[4 * x] = (byte) (pixel >> 16);
+						bytes[4 * x + 1] = (byte) (pixel >> 8);
+						bytes[4 * x + 2] = (byte) pixel;
+						bytes[4 * x + 3] = (byte) (pixel >> 24);
+					}
+					if (y == decoder.height() - 1) {
+						// the last row is only sent with a valid end marker, a client of a corrupted
+						// file gets a response shorter than its Content-Length
+						decoder.finish();
+					}
+					output.write(bytes);
+				}
+			}
+			return;
+		}
+
+		int[][] data = new int[(int) decoder.height()][];
+		for (int y = 0; y < data.length; y++) {
+			data[y] = new int[row.length];
+			decoder.readRow(data[y]);
+		}
+		decoder.finish();
+		headers.set("Content-Type", "image/png");
+		exchange.sendResponseHeaders(200, 0);
+		try (var output = new BufferedOutputStream(exchange.getResponseBody())) {
+			Helper.encodePng(new Helper.Image(data, decoder.channels(), decoder.colorSpace()), output);
+		}
+	}
+
+	private void info(HttpExchange exchange) throws IOException {
+		var decoder = new QOIStreamDecoder(exchange.getRequestBody());
+		send(exchange, 200, String.format("width=%d%nheight=%d%nchannels=%d%ncolorspace=%d%n",
+				decoder.width(), decoder.height(), decoder.channels(), decoder.colorSpace()));
+	}
+
+	private void metrics(HttpExchange exchange) throws IOException {
+		var text = new StringBuilder();
+		for (var entry : latencies.entrySet()) {
+			var histogram = entry.getValue();
+			text.append(String.format(Locale.ROOT, "%s count=%d p50=%.3fms p99=%.3fms p999=%.3fms%n", entry.getKey(),
+					histogram.count(), histogram.percentile(50) / 1e6, histogram.percentile(99) / 1e6,
+					histogram.percentile(99.9) / 1e6));
+		}
+		send(exchange, 200, text.toString());
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private void handle(String path, String method, Endpoint endpoint) {
+		var histogram = new LatencyHistogram();
+		latencies.put(path, histogram);
+		HttpHandler handler = exchange -> {
+			long start = System.nanoTime();
+			try (exchange) {
+				// the contexts match by prefix, '/encodeXYZ' would reach /encode
+				if (!path.equals(exchange.getRequestURI().getPath())) {
+					send(exchange, 404, "Not found\n");
+					return;
+				}
+				if (!method.equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", method);
+					send(exchange, 405, "Method not allowed\n");
+					return;
+				}
+				try {
+					endpoint.serve(exchange);
+				} catch (RuntimeException e) {
+					// corrupted or unsupported input, reported unless the response already started
+					if (exchange.getResponseCode() != -1) {
+						// thrown to the server, which drops the connection of the truncated response
+						throw new IOException(e);
+					}
+					send(exchange, 400, e.getMessage() + "\n");
+				}
+			} finally {
+				histogram.record(System.nanoTime() - start);
+			}
+		};
+		server.createContext(path, handler);
+	}
+
+	private static void send(HttpExchange exchange, int code, String text) throws IOException {
+		// the unread part of the body is drained, the server would otherwise reset the connection
+		// before the client reads the response (a body longer than MAX_BODY is still cut)
+		var body = exchange.getRequestBody();
+		byte[] buffer = new byte[1 << 13];
+		long remaining = MAX_BODY;
+		for (int read; remaining > 0 && (read = body.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0; ) {
+			remaining -= read;
+		}
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (var output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+}
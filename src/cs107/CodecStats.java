@@ -0,0 +1,207 @@
+package cs107;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Statistics of the operations of one "Quite Ok Image" encoding or decoding.
+ * An instance is given to QOIEncoder.encodeData or QOIDecoder.decodeData, which then record
+ * each operation they write or read. The versions of these methods without statistics pass
+ * null, and their only cost is a null check per operation.
+ * <ul>
+ *     <li>Number of operations and number of bytes per kind of operation</li>
+ *     <li>Histogram of the lengths of the runs (1 to 62)</li>
+ *     <li>Hit rate of the index : share of the pixels outside the runs found in the index</li>
+ *     <li>Collisions per slot of the index : a pixel replaced by a different one with the same hash</li>
+ *     <li>Number of bytes per row, an operation being counted in the row of its first pixel</li>
+ * </ul>
+ * An instance is not thread-safe, and is used for a single image.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class CodecStats {
+
+	/**
+	 * Operations of the format, with their size in bytes
+	 */
+	public enum Op {
+		RUN(1), INDEX(1), DIFF(1), LUMA(2), RGB(4), RGBA(5);
+
+		private final int size;
+
+		Op(int size) {
+			this.size = size;
+		}
+
+		/**
+		 * @return (int) - Size in bytes of the operation, tag included
+		 */
+		public int size() {
+			return size;
+		}
+	}
+
+	private final int width;
+	private final long[] counts = new long[Op.values().length];
+	private final long[] runLengths = new long[63];
+	private final long[] collisions = new long[64];
+	private final boolean[] filled = new boolean[64];
+	private final long[] rowBytes;
+	private long pixels;
+
+	/**
+	 * Create empty statistics for an image
+	 *
+	 * @param width  (int) - Width of the image
+	 * @param height (int) - Height of the image
+	 */
+	public CodecStats(int width, int height) {
+		assert width > 0 && height > 0;
+		this.width = width;
+		this.rowBytes = new long[height];
+	}
+
+	// ==================================================================================
+	// ================================ RECORDING METHODS ===============================
+	// ==================================================================================
+
+	/**
+	 * Record an operation
+	 *
+	 * @param op     (Op) - Operation written or read
+	 * @param pixels (int) - Number of pixels produced by the operation
+	 */
+	void op(Op op, int pixels) {
+		assert pixels > 0 && (op == Op.RUN ? pixels <= 62 : pixels == 1);
+		counts[op.ordinal()]++;
+		if (op == Op.RUN) {
+			runLengths[pixels]++;
+		}
+		int row = (int) (this.pixels / width);
+		assert row < rowBytes.length;
+		rowBytes[row] += op.size();
+		this.pixels += pixels;
+	}
+
+	/**
+	 * Record a pixel stored in the index
+	 *
+	 * @param slot    (int) - Slot of the index
+	 * @param differs (boolean) - Whether the pixel differs from the one already in the slot
+	 */
+	void store(int slot, boolean differs) {
+		if (filled[slot] && differs) {
+			collisions[slot]++;
+		}
+		filled[slot] = true;
+	}
+
+	// ==================================================================================
+	// ================================== ACCESSORS =====================================
+	// ==================================================================================
+
+	/**
+	 * @param op (Op) - Kind of operation
+	 * @return (long) - Number of operations of this kind
+	 */
+	public long count(Op op) {
+		return counts[op.ordinal()];
+	}
+
+	/**
+	 * @param op (Op) - Kind of operation
+	 * @return (long) - Number of bytes taken by the operations of this kind
+	 */
+	public long bytes(Op op) {
+		return counts[op.ordinal()] * op.size();
+	}
+
+	/**
+	 * @return (long) - Number of bytes of all the operations, without the header and the end marker
+	 */
+	public long bytes() {
+		long bytes = 0;
+		for (var op : Op.values()) {
+			bytes += bytes(op);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return (long) - Number of pixels produced by the recorded operations
+	 */
+	public long pixels() {
+		return pixels;
+	}
+
+	/**
+	 * @return (long[]) - Number of runs per length, at the index of the length (0 is unused)
+	 */
+	public long[] runLengths() {
+		return runLengths.clone();
+	}
+
+	/**
+	 * @return (double) - Share of the operations other than runs which are index hits, 0 if none
+	 */
+	public double indexHitRate() {
+		long lookups = 0;
+		for (var op : Op.values()) {
+			if (op != Op.RUN) {
+				lookups += count(op);
+			}
+		}
+		return lookups == 0 ? 0 : (double) count(Op.INDEX) / lookups;
+	}
+
+	/**
+	 * @return (long[]) - Number of collisions for each of the 64 slots of the index
+	 */
+	public long[] collisions() {
+		return collisions.clone();
+	}
+
+	/**
+	 * @return (long[]) - Number of bytes of each row
+	 */
+	public long[] rowBytes() {
+		return rowBytes.clone();
+	}
+
+	/**
+	 * Print a summary of the statistics
+	 *
+	 * @param out (PrintStream) - Where to print
+	 */
+	public void print(PrintStream out) {
+		long total = Math.max(1, bytes());
+		out.printf(Locale.ROOT, "%-6s %12s %14s %7s%n", "op", "count", "bytes", "bytes%");
+		for (var op : Op.values()) {
+			out.printf(Locale.ROOT, "%-6s %12d %14d %6.1f%%%n", op, count(op), bytes(op), bytes(op) * 100.0 / total);
+		}
+		long runs = count(Op.RUN);
+		out.printf(Locale.ROOT, "pixels %d, bytes %d, %.3f bytes per pixel%n", pixels, bytes(), (double) bytes() / Math.max(1, pixels));
+		out.printf(Locale.ROOT, "runs : mean length %.1f, full length (62) %d%n",
+				runs == 0 ? 0 : (double) (pixels - (count(Op.INDEX) + count(Op.DIFF) + count(Op.LUMA) + count(Op.RGB) + count(Op.RGBA))) / runs,
+				runLengths[62]);
+		long collided = 0;
+		int worst = 0;
+		for (int slot = 0; slot < collisions.length; slot++) {
+			collided += collisions[slot];
+			if (collisions[slot] > collisions[worst]) {
+				worst = slot;
+			}
+		}
+		out.printf(Locale.ROOT, "index : hit rate %.1f%%, %d collisions, at most %d in slot %d%n",
+				indexHitRate() * 100, collided, collisions[worst], worst);
+		long min = Long.MAX_VALUE;
+		long max = 0;
+		for (long bytes : rowBytes) {
+			min = Math.min(min, bytes);
+			max = Math.max(max, bytes);
+		}
+		out.printf(Locale.ROOT, "rows : %.1f bytes on average, from %d to %d%n", (double) bytes() / rowBytes.length, min, max);
+	}
+
+}
@@ -0,0 +1,308 @@
+package cs107;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Conformance and performance regression checks on the golden corpus.
+ * For every pair 'X.png' / 'X.qoi' of the corpus directory :
+ * <ul>
+ *     <li>the encoding of 'X.png' (QOIEncoder and QOIStreamEncoder) must be byte for byte 'X.qoi'</li>
+ *     <li>the decoding of 'X.qoi' (QOIDecoder and QOIStreamDecoder) must give the pixels of 'X.png'</li>
+ *     <li>the encoding and decoding throughputs must not drop below the stored baseline by more
+ *     than the tolerance (only for the images of at least 1000 pixels, the others are too noisy,
+ *     and only when the assertions are disabled, they slow the codec down)</li>
+ * </ul>
+ * <pre>
+ * java -cp out cs107.ConformanceHarness [--baseline FILE] [--tolerance FRACTION] [--update] [DIRECTORY]
+ * </pre>
+ * The baseline (by default 'perf/baseline-HOST.properties', tracked, one file per machine) stores the
+ * throughputs in megapixels per second of the machine it was recorded on. It is written when it
+ * does not exist, the performance is then not checked and the harness says so, or with --update
+ * after an intended change of performance. The harness exits with status 1 if any check fails.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class ConformanceHarness {
+
+	/**
+	 * Outcome of one check
+	 *
+	 * @param image   (String) - Name of the image
+	 * @param check   (String) - Name of the check
+	 * @param passed  (boolean) - Whether the check passed
+	 * @param details (String) - Explanation of the result
+	 */
+	public record Check(String image, String check, boolean passed, String details) {
+	}
+
+	/**
+	 * Default baseline, one tracked file per machine under 'perf/' (out of 'build/', which the
+	 * build script deletes) so that every checkout of a known machine checks the performance
+	 */
+	public static final Path BASELINE = Path.of("perf", "baseline-" + hostName() + ".properties");
+
+	/** Default maximum drop of throughput, as a fraction of the baseline : a codec twice as slow fails */
+	public static final double TOLERANCE = 0.4;
+
+	// Images smaller than this are only checked for conformance
+	private static final long MIN_PIXELS = 1000;
+
+	private static final int WARMUP = 3;
+	private static final int SAMPLES = 10;
+	private static final long MIN_NANOS = 20_000_000;
+
+	// Hide default constructor
+	private ConformanceHarness() {
+	}
+
+	/**
+	 * Run the checks from the command line
+	 *
+	 * @param args (String[]) - Options then the corpus directory
+	 * @throws IOException if the corpus or the baseline cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		var directory = Path.of("references");
+		Path baselineFile = BASELINE;
+		double tolerance = TOLERANCE;
+		boolean update = false;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--baseline" -> baselineFile = Path.of(args[++i]);
+				case "--tolerance" -> tolerance = Double.parseDouble(args[++i]);
+				case "--update" -> update = true;
+				default -> directory = Path.of(args[i]);
+			}
+		}
+
+		var checks = new ArrayList<Check>();
+		for (var png : pairs(directory)) {
+			var name = png.getFileName().toString();
+			name = name.substring(0, name.length() - 4);
+			checks.addAll(conformance(name, Files.readAllBytes(png), Files.readAllBytes(png.resolveSibling(name + ".qoi"))));
+		}
+		boolean assertions = false;
+		assert assertions = true;
+		if (assertions) {
+			print(checks, "the assertions are enabled");
+			return;
+		}
+		var baseline = new Properties();
+		boolean record = update || !Files.exists(baselineFile);
+		var measured = new Properties();
+		if (!record) {
+			try (InputStream input = Files.newInputStream(baselineFile)) {
+				baseline.load(input);
+			}
+		}
+		for (var png : pairs(directory)) {
+			var name = png.getFileName().toString();
+			name = name.substring(0, name.length() - 4);
+			var image = Helper.readImage(png.toString());
+			if ((long) image.data().length * image.data()[0].length >= MIN_PIXELS) {
+				checks.addAll(performance(name, image, record ? null : baseline, tolerance, measured));
+			}
+		}
+		if (record) {
+			if (baselineFile.getParent() != null) {
+				Files.createDirectories(baselineFile.getParent());
+			}
+			try (OutputStream output = Files.newOutputStream(baselineFile)) {
+				measured.store(output, "Throughput baseline in megapixels per second, see cs107.ConformanceHarness");
+			}
+			System.out.println("Baseline written to " + baselineFile);
+		}
+
+		print(checks, record && !update ? "there was no baseline at " + baselineFile + ", it has just been recorded" : null);
+	}
+
+	// ==================================================================================
+	// ================================== HARNESS API ===================================
+	// ==================================================================================
+
+	/**
+	 * Check the encoders and the decoders against a golden pair
+	 *
+	 * @param name (String) - Name of the image
+	 * @param png  (byte[]) - Content of the "PNG" file
+	 * @param qoi  (byte[]) - Content of the expected "QOI" file
+	 * @return (List of Check) - Results of the checks
+	 */
+	public static List<Check> conformance(String name, byte[] png, byte[] qoi) {
+		var checks = new ArrayList<Check>();
+		var image = Helper.decodeImage(png);
+		int height = image.data().length;
+		int width = image.data()[0].length;
+
+		checks.add(run(name, "encode", () -> sameBytes(QOIEncoder.qoiFile(image), qoi)));
+		checks.add(run(name, "stream encode", () -> {
+			var output = new ByteArrayOutputStream();
+			var encoder = new QOIStreamEncoder(output, width, height, image.channels(), image.color_space());
+			for (int[] row : image.data()) {
+				encoder.writeRow(row);
+			}
+			encoder.finish();
+			return sameBytes(output.toByteArray(), qoi);
+		}));
+		checks.add(run(name, "decode", () -> samePixels(QOIDecoder.decodeQoiFile(qoi).data(), image.data())));
+		checks.add(run(name, "stream decode", () -> {
+			var decoder = new QOIStreamDecoder(new ByteArrayInputStream(qoi));
+			int[][] data = new int[height][width];
+			for (int[] row : data) {
+				decoder.readRow(row);
+			}
+			decoder.finish();
+			return samePixels(data, image.data());
+		}));
+		return checks;
+	}
+
+	/**
+	 * Measure the throughputs of an image and compare them with a baseline
+	 *
+	 * @param name      (String) - Name of the image
+	 * @param image     (Helper.Image) - Image to measure
+	 * @param baseline  (Properties) - Throughputs of reference, null to only measure
+	 * @param tolerance (double) - Maximum drop of throughput, as a fraction of the baseline
+	 * @param measured  (Properties) - Where to store the measured throughputs
+	 * @return (List of Check) - Results of the comparisons with the baseline, empty without baseline
+	 */
+	public static List<Check> performance(String name, Helper.Image image, Properties baseline, double tolerance,
+	                                      Properties measured) {
+		long pixels = (long) image.data().length * image.data()[0].length;
+		byte[] qoi = QOIEncoder.qoiFile(image);
+		var results = List.of(
+				CodecBenchmark.measure(name, "encode", pixels, 4 * pixels, WARMUP, SAMPLES, MIN_NANOS, () -> QOIEncoder.qoiFile(image)),
+				CodecBenchmark.measure(name, "decode", pixels, 4 * pixels, WARMUP, SAMPLES, MIN_NANOS, () -> QOIDecoder.decodeQoiFile(qoi)));
+		var checks = new ArrayList<Check>();
+		for (var result : results) {
+			var key = name + "." + result.operation();
+			// the fastest sample, the least disturbed by the rest of the machine
+			double megapixels = pixels * 1e3 / result.bestNanos();
+			measured.setProperty(key, String.format(Locale.ROOT, "%.3f", megapixels));
+			if (baseline == null) {
+				continue;
+			}
+			var reference = baseline.getProperty(key);
+			if (reference == null) {
+				checks.add(new Check(name, result.operation() + " speed", false, "missing from the baseline, run with --update"));
+				continue;
+			}
+			double expected = Double.parseDouble(reference);
+			checks.add(new Check(name, result.operation() + " speed", megapixels >= expected * (1 - tolerance),
+					String.format(Locale.ROOT, "%.1f MP/s, baseline %.1f MP/s (%+.0f%%)", megapixels, expected,
+							(megapixels / expected - 1) * 100)));
+		}
+		return checks;
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	/**
+	 * Print the checks and exit with status 1 if one of them failed
+	 *
+	 * @param checks    (List of Check) - Checks to print
+	 * @param unchecked (String) - Why the performance was not checked, null if it was
+	 */
+	private static void print(List<Check> checks, String unchecked) {
+		int failures = 0;
+		for (var check : checks) {
+			System.out.printf("%-5s %-20s %-18s %s%n", check.passed() ? "OK" : "FAIL", check.image(), check.check(), check.details());
+			if (!check.passed()) {
+				failures++;
+			}
+		}
+		if (failures > 0) {
+			System.out.printf("%d checks failed%n", failures);
+			System.exit(1);
+		}
+		if (unchecked != null) {
+			System.out.println("==========================================================================");
+			System.out.printf("== WARNING : THE PERFORMANCE WAS NOT CHECKED, %s%n", unchecked);
+			System.out.println("==========================================================================");
+			System.out.printf("All the %d conformance checks passed, the performance is unchecked%n", checks.size());
+			return;
+		}
+		System.out.printf("All the %d checks passed%n", checks.size());
+	}
+
+	private interface Body {
+		String run() throws IOException;
+	}
+
+	/**
+	 * Run a check, the body returns null when it passes and the reason of the failure otherwise
+	 */
+	private static Check run(String image, String check, Body body) {
+		try {
+			var failure = body.run();
+			return new Check(image, check, failure == null, failure == null ? "" : failure);
+		} catch (IOException | RuntimeException | AssertionError e) {
+			return new Check(image, check, false, e.toString());
+		}
+	}
+
+	private static String sameBytes(byte[] actual, byte[] expected) {
+		int mismatch = Arrays.mismatch(actual, expected);
+		if (mismatch == -1) {
+			return null;
+		}
+		return String.format("%d bytes instead of %d, first difference at offset %d", actual.length, expected.length, mismatch);
+	}
+
+	private static String samePixels(int[][] actual, int[][] expected) {
+		if (actual.length != expected.length || actual[0].length != expected[0].length) {
+			return String.format("%d x %d pixels instead of %d x %d", actual[0].length, actual.length, expected[0].length, expected.length);
+		}
+		for (int y = 0; y < expected.length; y++) {
+			int x = Arrays.mismatch(actual[y], expected[y]);
+			if (x != -1) {
+				return String.format("pixel (%d, %d) is %08X instead of %08X", x, y, actual[y][x], expected[y][x]);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return (List of Path) - The "PNG" files of the directory which have a "QOI" file of the same name
+	 */
+	private static List<Path> pairs(Path directory) throws IOException {
+		try (Stream<Path> listing = Files.list(directory)) {
+			return listing.filter(file -> file.toString().endsWith(".png"))
+					.filter(file -> {
+						var name = file.getFileName().toString();
+						return Files.exists(file.resolveSibling(name.substring(0, name.length() - 4) + ".qoi"));
+					})
+					.sorted().collect(Collectors.toList());
+		}
+	}
+
+	// Name of the machine, reduced to the characters safe in a file name
+	private static String hostName() {
+		String name;
+		try {
+			name = InetAddress.getLocalHost().getHostName();
+		} catch (IOException e) {
+			name = "local";
+		}
+		return name.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+}
@@ -0,0 +1,344 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * "PNG" to "QOI" conversion pipeline.
+ * The conversion is split in four stages (read, pixel conversion, encoding and write)
+ * running on their own threads and connected by bounded queues, so the disk and the
+ * processors work at the same time. A submission blocks when the first queue is full.
+ * The estimated memory of the images in flight is bounded by a global budget, taken when a
+ * file is submitted : a file which does not fit waits aside, without holding a thread, until
+ * enough memory is released, while the smaller files submitted after it keep flowing.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class ConversionPipeline implements AutoCloseable {
+
+	/**
+	 * Configuration of the pipeline
+	 *
+	 * @param readers       (int) - Number of threads reading files
+	 * @param converters    (int) - Number of threads decoding "PNG" files to pixels
+	 * @param encoders      (int) - Number of threads encoding pixels to "QOI"
+	 * @param writers       (int) - Number of threads writing files
+	 * @param queueCapacity (int) - Capacity of each queue between two stages
+	 * @param memoryBudget  (long) - Maximal estimated memory in bytes of the images in flight
+	 */
+	public record Config(int readers, int converters, int encoders, int writers, int queueCapacity, long memoryBudget) {
+
+		/**
+		 * @return (Config) - Two readers and writers, one converter and encoder per processor,
+		 * and a quarter of the maximal heap size as memory budget
+		 */
+		public static Config defaults() {
+			int cpus = Runtime.getRuntime().availableProcessors();
+			return new Config(2, cpus, cpus, 2, 16, Runtime.getRuntime().maxMemory() / 4);
+		}
+	}
+
+	/**
+	 * Estimated memory per pixel of a file in flight : the ARGB pixel, its 4-byte
+	 * channel array with its object header and reference, and its encoding
+	 */
+	private static final int BYTES_PER_PIXEL = 4 + 24 + 5;
+
+	/**
+	 * The memory budget is counted in blocks of 1 KiB so it fits in a semaphore
+	 */
+	private static final int BLOCK = 1024;
+
+	private static final class Job {
+		private final Path input;
+		private final Path output;
+		private final long start = System.nanoTime();
+		// handed from stage to stage through the queues, never used by two threads at once
+		private final StageTimer stages = new StageTimer();
+		private int blocks;
+		private byte[] content;
+		private long inputBytes;
+		private Helper.Image image;
+		private byte[][] channels;
+		private byte[] encoded;
+
+		private Job(Path input, Path output) {
+			this.input = input;
+			this.output = output;
+		}
+	}
+
+	private static final Job END = new Job(null, null);
+
+	private interface Stage {
+		void process(Job job) throws Exception;
+	}
+
+	private final Semaphore memory;
+	private final int budgetBlocks;
+	private final BlockingQueue<Job> reads;
+	// files submitted and waiting for memory, in submission order, also the lock of the admissions
+	private final ArrayDeque<Job> waiting = new ArrayDeque<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private final List<BatchConverter.FileResult> results = Collections.synchronizedList(new ArrayList<>());
+	private final long start = System.nanoTime();
+	private volatile boolean closed;
+
+	/**
+	 * Create and start a pipeline
+	 *
+	 * @param config (Config) - Configuration of the pipeline
+	 */
+	public ConversionPipeline(Config config) {
+		assert config.readers() > 0 && config.converters() > 0 && config.encoders() > 0 && config.writers() > 0;
+		assert config.queueCapacity() > 0 && config.memoryBudget() >= BLOCK;
+		this.budgetBlocks = (int) Math.min(Integer.MAX_VALUE, config.memoryBudget() / BLOCK);
+		this.memory = new Semaphore(budgetBlocks);
+
+		this.reads = new ArrayBlockingQueue<>(config.queueCapacity());
+		BlockingQueue<Job> converts = new ArrayBlockingQueue<>(config.queueCapacity());
+		BlockingQueue<Job> encodes = new ArrayBlockingQueue<>(config.queueCapacity());
+		BlockingQueue<Job> writes = new ArrayBlockingQueue<>(config.queueCapacity());
+
+		start("read", config.readers(), reads, converts, this::read);
+		start("convert", config.converters(), converts, encodes, this::convert);
+		start("encode", config.encoders(), encodes, writes, this::encode);
+		start("write", config.writers(), writes, null, this::write);
+	}
+
+	// ==================================================================================
+	// ================================== PIPELINE API ==================================
+	// ==================================================================================
+
+	/**
+	 * Queue the conversion of a file, blocks while the first stage is full. A file for
+	 * which there is not enough memory yet is set aside and the call returns at once
+	 *
+	 * @param input  (Path) - "PNG" file to convert
+	 * @param output (Path) - Where to write the "QOI" file
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void submit(Path input, Path output) throws InterruptedException {
+		assert input != null && output != null;
+		if (closed) {
+			Helper.fail("The pipeline is closed");
+		}
+		var job = new Job(input, output);
+		// an image larger than the budget runs alone
+		job.blocks = (int) Math.min(budgetBlocks, estimate(input) / BLOCK + 1);
+		boolean admitted;
+		synchronized (waiting) {
+			admitted = waiting.isEmpty() && memory.tryAcquire(job.blocks);
+			if (!admitted) {
+				waiting.add(job);
+			}
+		}
+		if (admitted) {
+			reads.put(job);
+		} else {
+			admit();
+		}
+	}
+
+	/**
+	 * Wait for all the submitted files to be converted and stop the threads
+	 *
+	 * @return (BatchConverter.Report) - Outcome of all the conversions, in completion order
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public BatchConverter.Report finish() throws InterruptedException {
+		if (!closed) {
+			closed = true;
+			synchronized (waiting) {
+				while (!waiting.isEmpty()) {
+					waiting.wait();
+				}
+			}
+			reads.put(END);
+		}
+		for (var thread : threads) {
+			thread.join();
+		}
+		return new BatchConverter.Report(List.copyOf(results), System.nanoTime() - start);
+	}
+
+	/**
+	 * Wait for all the submitted files to be converted and stop the threads. If the thread is
+	 * interrupted while waiting, the threads are left running and the interrupt flag is set again
+	 */
+	@Override
+	public void close() {
+		try {
+			finish();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// ==================================================================================
+	// ===================================== STAGES =====================================
+	// ==================================================================================
+
+	private void read(Job job) throws IOException {
+		long mark = StageTimer.now(job.stages);
+		job.content = Files.readAllBytes(job.input);
+		StageTimer.lap(job.stages, StageTimer.Stage.READ, mark);
+		job.inputBytes = job.content.length;
+	}
+
+	private void convert(Job job) {
+		job.image = Helper.decodeImage(job.content, job.stages);
+		job.content = null;
+		long mark = StageTimer.now(job.stages);
+		job.channels = ArrayUtils.imageToChannels(job.image.data());
+		StageTimer.lap(job.stages, StageTimer.Stage.PIXELS, mark);
+	}
+
+	private void encode(Job job) {
+		long mark = StageTimer.now(job.stages);
+		job.encoded = ArrayUtils.concat(
+				QOIEncoder.qoiHeader(job.image),
+				QOIEncoder.encodeData(job.channels),
+				QOISpecification.QOI_EOF);
+		StageTimer.lap(job.stages, StageTimer.Stage.CODEC, mark);
+		job.channels = null;
+	}
+
+	private void write(Job job) throws IOException {
+		Files.createDirectories(job.output.toAbsolutePath().getParent());
+		long mark = StageTimer.now(job.stages);
+		Files.write(job.output, job.encoded);
+		StageTimer.lap(job.stages, StageTimer.Stage.WRITE, mark);
+		job.stages.count();
+		long pixels = (long) job.image.data().length * job.image.data()[0].length;
+		results.add(new BatchConverter.FileResult(job.input, job.output, job.inputBytes, job.encoded.length,
+				pixels, System.nanoTime() - job.start, job.stages, null));
+		release(job);
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	/**
+	 * Start the workers of a stage. When all the workers of the stage have seen the END job,
+	 * the last one forwards it to the next stage
+	 */
+	private void start(String name, int workers, BlockingQueue<Job> in, BlockingQueue<Job> out, Stage stage) {
+		var running = new AtomicInteger(workers);
+		for (int i = 0; i < workers; i++) {
+			var thread = new Thread(() -> {
+				try {
+					while (true) {
+						var job = in.take();
+						if (job == END) {
+							// let the other workers of the stage see it
+							in.put(END);
+							break;
+						}
+						try {
+							stage.process(job);
+						} catch (Exception | Error e) {
+							results.add(new BatchConverter.FileResult(job.input, job.output, job.inputBytes, 0, 0,
+									System.nanoTime() - job.start, job.stages, e));
+							release(job);
+							continue;
+						}
+						if (out != null) {
+							out.put(job);
+						}
+					}
+					if (running.decrementAndGet() == 0) {
+						in.clear();
+						if (out != null) {
+							out.put(END);
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}, "qoi-" + name + "-" + i);
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	private void release(Job job) {
+		memory.release(job.blocks);
+		job.blocks = 0;
+		job.content = null;
+		job.image = null;
+		job.channels = null;
+		job.encoded = null;
+		admit();
+	}
+
+	/**
+	 * Queue the waiting files which now fit in the memory, in submission order. A file is
+	 * skipped when it does not fit, so a large file does not hold back the smaller ones, and
+	 * the admissions stop when the first queue is full : each file in it releases memory later,
+	 * which admits the next ones
+	 */
+	private void admit() {
+		synchronized (waiting) {
+			for (var iterator = waiting.iterator(); iterator.hasNext(); ) {
+				var job = iterator.next();
+				if (memory.tryAcquire(job.blocks)) {
+					if (!reads.offer(job)) {
+						memory.release(job.blocks);
+						break;
+					}
+					iterator.remove();
+				}
+			}
+			if (waiting.isEmpty()) {
+				waiting.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Estimate the memory needed to convert a file
+	 *
+	 * @param file (Path) - "PNG" file
+	 * @return (long) - Estimated number of bytes, 0 if the file cannot be read (the read stage reports it)
+	 */
+	private static long estimate(Path file) {
+		try {
+			return Files.size(file) + pngPixels(file) * BYTES_PER_PIXEL;
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Read the dimensions of a "PNG" file from its IHDR chunk without decoding it
+	 *
+	 * @param file (Path) - "PNG" file
+	 * @return (long) - Number of pixels of the image, 0 if the header cannot be read
+	 */
+	private static long pngPixels(Path file) throws IOException {
+		try (var input = Files.newInputStream(file)) {
+			// 8 bytes signature, 4 bytes chunk length, 4 bytes "IHDR", then width and height
+			var header = input.readNBytes(24);
+			if (header.length < 24 || header[12] != 'I' || header[13] != 'H' || header[14] != 'D' || header[15] != 'R') {
+				return 0;
+			}
+			long width = Integer.toUnsignedLong(ArrayUtils.toInt(header, 16));
+			long height = Integer.toUnsignedLong(ArrayUtils.toInt(header, 20));
+			return width * height;
+		}
+	}
+
+}
@@ -0,0 +1,258 @@
+package cs107;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator of synthetic images for the benchmarks and the stress tests.
+ * Each kind of content favours some operations of the "Quite Ok Image" format, so the
+ * encoder and the decoder can be measured on each of their paths. The pixels only depend
+ * on the content, the size, the seed and the position : a row can be generated on its own,
+ * and images too large to be kept in memory are written row by row.
+ * <pre>
+ * java -cp out cs107.CorpusGenerator OUTPUT_DIRECTORY [--seed N] [--min-size N] [--max-size N] [--content NAME]
+ * </pre>
+ * writes one "QOI" file per content and per square size, the sizes being the powers of 4
+ * times 16 between the minimum (16 by default) and the maximum (16384 by default).
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class CorpusGenerator {
+
+	/**
+	 * Kinds of content, and the operations they favour
+	 */
+	public enum Content {
+		/** Long runs of the same colour : QOI_OP_RUN */
+		RUNS,
+		/** Short runs of colours taken from a small palette : QOI_OP_INDEX */
+		PALETTE,
+		/** Smooth gradients with a little noise : QOI_OP_DIFF and QOI_OP_LUMA */
+		GRADIENT,
+		/** Uniform random opaque colours : QOI_OP_RGB */
+		NOISE,
+		/** Smooth colours with a varying alpha channel : QOI_OP_RGBA */
+		ALPHA
+	}
+
+	/** Smallest size of the corpus */
+	public static final int MIN_SIZE = 16;
+
+	/** Largest size of the corpus */
+	public static final int MAX_SIZE = 16384;
+
+	// Number of colours of the PALETTE content, all with a different hash
+	private static final int PALETTE_SIZE = 48;
+
+	// Hide default constructor
+	private CorpusGenerator() {
+	}
+
+	/**
+	 * Write the corpus from the command line
+	 *
+	 * @param args (String[]) - Output directory then options
+	 * @throws IOException if a file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("usage: OUTPUT_DIRECTORY [--seed N] [--min-size N] [--max-size N] [--content NAME]");
+			System.exit(2);
+		}
+		var directory = Path.of(args[0]);
+		long seed = 107;
+		int minSize = MIN_SIZE;
+		int maxSize = MAX_SIZE;
+		var contents = new ArrayList<>(List.of(Content.values()));
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "--seed" -> seed = Long.parseLong(args[++i]);
+				case "--min-size" -> minSize = Integer.parseInt(args[++i]);
+				case "--max-size" -> maxSize = Integer.parseInt(args[++i]);
+				case "--content" -> contents = new ArrayList<>(List.of(Content.valueOf(args[++i].toUpperCase(Locale.ROOT))));
+				default -> Helper.fail("Unknown option '%s'", args[i]);
+			}
+		}
+		Files.createDirectories(directory);
+		for (var content : contents) {
+			for (int size = minSize; size <= maxSize; size *= 4) {
+				var file = directory.resolve(name(content, size, size, seed));
+				long start = System.nanoTime();
+				try (var output = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+					writeQoi(content, size, size, seed, output);
+				}
+				System.out.printf(Locale.ROOT, "%s: %d bytes in %.1f ms%n", file, Files.size(file), (System.nanoTime() - start) / 1e6);
+			}
+		}
+	}
+
+	// ==================================================================================
+	// ================================= GENERATOR API ==================================
+	// ==================================================================================
+
+	/**
+	 * Generate an image in memory
+	 *
+	 * @param content (Content) - Kind of content
+	 * @param width   (int) - Width of the image
+	 * @param height  (int) - Height of the image
+	 * @param seed    (long) - Seed of the generator
+	 * @return (Helper.Image) - The generated image
+	 */
+	public static Helper.Image generate(Content content, int width, int height, long seed) {
+		assert content != null && width > 0 && height > 0;
+		int[][] data = new int[height][width];
+		for (int y = 0; y < height; y++) {
+			row(content, width, height, seed, y, data[y]);
+		}
+		return new Helper.Image(data, channels(content), QOISpecification.sRGB);
+	}
+
+	/**
+	 * Generate one row of an image
+	 *
+	 * @param content (Content) - Kind of content
+	 * @param width   (long) - Width of the image
+	 * @param height  (long) - Height of the image
+	 * @param seed    (long) - Seed of the generator
+	 * @param y       (long) - Index of the row
+	 * @param row     (int[]) - Where to store the ARGB pixels of the row, of length width
+	 */
+	public static void row(Content content, long width, long height, long seed, long y, int[] row) {
+		assert content != null && row != null && row.length == width;
+		assert y >= 0 && y < height;
+		var random = new SplittableRandom(mix(mix(seed, content.ordinal()), y));
+		switch (content) {
+			case RUNS -> {
+				int x = 0;
+				while (x < row.length) {
+					int color = 0xFF000000 | random.nextInt(1 << 24);
+					int end = Math.min(row.length, x + 16 + random.nextInt(496));
+					while (x < end) {
+						row[x++] = color;
+					}
+				}
+			}
+			case PALETTE -> {
+				int[] palette = palette(seed);
+				int x = 0;
+				while (x < row.length) {
+					int color = palette[random.nextInt(palette.length)];
+					int end = Math.min(row.length, x + 1 + random.nextInt(3));
+					while (x < end) {
+						row[x++] = color;
+					}
+				}
+			}
+			case GRADIENT -> {
+				// slopes in 1/16 of a level per pixel, changing every 16 rows : the flat bands
+				// give QOI_OP_DIFF and the steep ones QOI_OP_LUMA
+				var slopes = new SplittableRandom(mix(seed, -1 - y / 16));
+				int steep = slopes.nextBoolean() ? 96 : 24;
+				int sr = slopes.nextInt(steep), sg = slopes.nextInt(steep), sb = slopes.nextInt(steep);
+				long base = y * 4 / Math.max(1, height / 64);
+				for (int x = 0; x < row.length; x++) {
+					int jitter = random.nextInt(3) - 1;
+					int r = (int) (base + (x * sr >> 4) + jitter);
+					int g = (int) (base / 2 + (x * sg >> 4));
+					int b = (int) (base * 3 + (x * sb >> 4) - jitter);
+					row[x] = 0xFF000000 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | b & 0xFF;
+				}
+			}
+			case NOISE -> {
+				for (int x = 0; x < row.length; x++) {
+					row[x] = 0xFF000000 | random.nextInt(1 << 24);
+				}
+			}
+			case ALPHA -> {
+				for (int x = 0; x < row.length; x++) {
+					int alpha = random.nextInt(256);
+					int level = (int) ((x + y) & 0xFF);
+					row[x] = alpha << 24 | level << 16 | (255 - level) << 8 | (level >> 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generate an image directly as a "QOI" file, row by row. Any size can be written
+	 *
+	 * @param content (Content) - Kind of content
+	 * @param width   (int) - Width of the image
+	 * @param height  (long) - Height of the image
+	 * @param seed    (long) - Seed of the generator
+	 * @param output  (OutputStream) - Where to write the file, it is not closed
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void writeQoi(Content content, int width, long height, long seed, OutputStream output) throws IOException {
+		assert width > 0 && height > 0;
+		var encoder = new QOIStreamEncoder(output, width, height, channels(content), QOISpecification.sRGB);
+		int[] row = new int[width];
+		for (long y = 0; y < height; y++) {
+			row(content, width, height, seed, y, row);
+			encoder.writeRow(row);
+		}
+		encoder.finish();
+	}
+
+	/**
+	 * @param content (Content) - Kind of content
+	 * @return (byte) - Number of channels of the images of this content
+	 */
+	public static byte channels(Content content) {
+		return content == Content.ALPHA ? QOISpecification.RGBA : QOISpecification.RGB;
+	}
+
+	/**
+	 * @param content (Content) - Kind of content
+	 * @param width   (long) - Width of the image
+	 * @param height  (long) - Height of the image
+	 * @param seed    (long) - Seed of the generator
+	 * @return (String) - Name of the "QOI" file of the image in the corpus
+	 */
+	public static String name(Content content, long width, long height, long seed) {
+		return String.format(Locale.ROOT, "%s_%dx%d_%d.qoi", content.name().toLowerCase(Locale.ROOT), width, height, seed);
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	/**
+	 * Opaque colours with distinct hashes, so that each one stays in the index of the encoder
+	 */
+	private static int[] palette(long seed) {
+		var random = new SplittableRandom(mix(seed, -2));
+		int[] palette = new int[PALETTE_SIZE];
+		boolean[] used = new boolean[64];
+		int size = 0;
+		while (size < palette.length) {
+			int color = 0xFF000000 | random.nextInt(1 << 24);
+			int hash = QOIStreamEncoder.hash(color);
+			if (!used[hash]) {
+				used[hash] = true;
+				palette[size++] = color;
+			}
+		}
+		return palette;
+	}
+
+	/**
+	 * Combine a seed with a value (finalizer of SplitMix64)
+	 */
+	private static long mix(long seed, long value) {
+		long z = seed + 0x9E3779B97F4A7C15L * (value + 1);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -1,15 +1,54 @@
 package cs107;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
 /**
- * Utility class used to simulate the Unix command "diff"
+ * Utility class used to simulate the Unix command "diff".
+ * Consecutive differing bytes are shown as one range, and the comparison stops after
+ * a maximal number of ranges. Files are compared chunk by chunk, so their size does not matter.
+ * <pre>
+ * java -cp out cs107.Diff [--max RANGES] FILE_1 FILE_2
+ * </pre>
  * @author Hamza REMMAL (hamza.remmal@epfl.ch)
  * @version 1.3
  * @since 1.0
  */
 public final class Diff {
 
+    /**
+     * Summary of a comparison
+     * @param size_1 (long) - Size of the first input
+     * @param size_2 (long) - Size of the second input
+     * @param ranges (long) - Number of ranges of consecutive differing bytes found
+     * @param bytes (long) - Number of differing bytes in these ranges
+     * @param complete (boolean) - false if the comparison stopped after the maximal number of ranges
+     */
+    public record Summary(long size_1, long size_2, long ranges, long bytes, boolean complete) {
+
+        /**
+         * @return (boolean) - true if the two inputs have the same content
+         */
+        public boolean same() {
+            return complete && ranges == 0 && size_1 == size_2;
+        }
+    }
+
+    /** Default number of ranges shown before the comparison stops */
+    public static final int MAX_RANGES = 64;
+
+    // Size of the chunks read from each file
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    // Number of bytes of each input shown for a range
+    private static final int SHOWN_BYTES = 8;
+
     // ============================================================================================
     // ======================================= DIFF API ===========================================
     // ============================================================================================
@@ -25,14 +64,12 @@ public final class Diff {
         assert b1 != null;
         assert b2 != null;
 
-        if(Arrays.equals(b1, b2))
-            showSameFileMessage();
-        else {
-            var size_to_check = b1.length != b2.length ? sizeWarning(b1.length, b2.length) : b1.length;
-            compareAndShow(b1, b2, size_to_check);
-        }
-
-        showEnd();
+        var out = terminal();
+        var ranges = new Ranges(MAX_RANGES, out);
+        ranges.compare(b1, b2, Integer.min(b1.length, b2.length), 0);
+        showSummary(out, ranges.summary(b1.length, b2.length));
+        showEnd(out);
+        out.flush();
     }
 
     /**
@@ -46,10 +83,81 @@ public final class Diff {
         assert file_1 != null;
         assert file_2 != null;
 
-        var b1 = Helper.read(file_1);
-        var b2 = Helper.read(file_2);
-        showHeader(file_1, file_2, b1, b2);
-        diff(b1, b2);
+        var out = terminal();
+        try {
+            diff(Path.of(file_1), Path.of(file_2), MAX_RANGES, out);
+        } catch (IOException e) {
+            Helper.fail("An error occurred while trying to compare : \"%s\" and \"%s\"%n", file_1, file_2);
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Compare the content of 2 files chunk by chunk and print the ranges of differing bytes
+     * @param file_1 (Path) - First file
+     * @param file_2 (Path) - Second file
+     * @param max_ranges (int) - Number of ranges after which the comparison stops
+     * @param out (PrintStream) - Where to print the differences
+     * @return (Summary) - Summary of the comparison
+     * @throws IOException if one of the files cannot be read
+     * @throws AssertionError if one of the parameters is null or max_ranges is not positive
+     */
+    public static Summary diff(Path file_1, Path file_2, int max_ranges, PrintStream out) throws IOException {
+        assert file_1 != null;
+        assert file_2 != null;
+        assert max_ranges > 0;
+        assert out != null;
+
+        try (var channel_1 = FileChannel.open(file_1, StandardOpenOption.READ);
+             var channel_2 = FileChannel.open(file_2, StandardOpenOption.READ)) {
+            showHeader(out, file_1.toString(), file_2.toString(), channel_1.size(), channel_2.size());
+            var ranges = new Ranges(max_ranges, out);
+            var chunk_1 = ByteBuffer.allocate(CHUNK_SIZE);
+            var chunk_2 = ByteBuffer.allocate(CHUNK_SIZE);
+            long offset = 0;
+            while (!ranges.stopped) {
+                int read_1 = fill(channel_1, chunk_1);
+                int read_2 = fill(channel_2, chunk_2);
+                int length = Integer.min(read_1, read_2);
+                ranges.compare(chunk_1.array(), chunk_2.array(), length, offset);
+                offset += length;
+                // a chunk is only partly filled at the end of its file
+                if (read_1 < CHUNK_SIZE || read_2 < CHUNK_SIZE)
+                    break;
+            }
+            var summary = ranges.summary(channel_1.size(), channel_2.size());
+            showSummary(out, summary);
+            showEnd(out);
+            return summary;
+        }
+    }
+
+    /**
+     * Compare two files from the command line
+     * @param args (String[]) - Options then the paths of the two files
+     */
+    public static void main(String[] args){
+        var max_ranges = MAX_RANGES;
+        var i = 0;
+        if (args.length > 1 && args[0].equals("--max")) {
+            max_ranges = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (args.length - i != 2 || max_ranges <= 0) {
+            System.err.println("usage : java cs107.Diff [--max RANGES] FILE_1 FILE_2");
+            System.exit(2);
+        }
+        var out = terminal();
+        try {
+            var summary = diff(Path.of(args[i]), Path.of(args[i + 1]), max_ranges, out);
+            out.flush();
+            System.exit(summary.same() ? 0 : 1);
+        } catch (IOException e) {
+            out.flush();
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
     }
 
     // ============================================================================================
@@ -58,33 +166,137 @@ public final class Diff {
     // Hide default constructor
     private Diff(){}
 
-    private static void showHeader(String file_1, String file_2, byte[] stream_f1, byte[] stream_f2){
-        System.out.println("========================================== DIFF ==========================================");
-        System.out.printf("== File 1 : '%s', size = %d bytes %n", file_1, stream_f1.length);
-        System.out.printf("== File 2 : '%s', size = %d bytes %n", file_2, stream_f2.length);
-        System.out.println("==========================================================================================");
+    /**
+     * Ranges of consecutive differing bytes, printed as soon as they end.
+     * A range can span several chunks.
+     */
+    private static final class Ranges {
+
+        private final int max_ranges;
+        private final PrintStream out;
+        private final byte[] shown_1 = new byte[SHOWN_BYTES];
+        private final byte[] shown_2 = new byte[SHOWN_BYTES];
+        private long ranges;
+        private long bytes;
+        // bounds of the range not printed yet, start is -1 if there is none
+        private long start = -1;
+        private long end;
+        private boolean stopped;
+
+        private Ranges(int max_ranges, PrintStream out){
+            this.max_ranges = max_ranges;
+            this.out = out;
+        }
+
+        /**
+         * Compare the first bytes of two chunks
+         * @param b1 (byte[]) - Chunk of the first input
+         * @param b2 (byte[]) - Chunk of the second input
+         * @param length (int) - Number of bytes to compare
+         * @param offset (long) - Position of the chunks in the inputs
+         */
+        private void compare(byte[] b1, byte[] b2, int length, long offset){
+            var i = 0;
+            while (i < length && !stopped) {
+                var mismatch = Arrays.mismatch(b1, i, length, b2, i, length);
+                if (mismatch < 0)
+                    break;
+                i += mismatch;
+                var j = i + 1;
+                while (j < length && b1[j] != b2[j])
+                    j++;
+                add(b1, b2, i, j, offset);
+                i = j;
+            }
+        }
+
+        private void add(byte[] b1, byte[] b2, int from, int to, long offset){
+            if (start < 0 || offset + from != end) {
+                flush();
+                if (ranges == max_ranges) {
+                    stopped = true;
+                    return;
+                }
+                start = offset + from;
+                end = start;
+            }
+            // keep the first bytes of the range, it may continue in the next chunk
+            var shown = (int) Long.min(SHOWN_BYTES, end - start);
+            var count = Integer.min(SHOWN_BYTES - shown, to - from);
+            System.arraycopy(b1, from, shown_1, shown, count);
+            System.arraycopy(b2, from, shown_2, shown, count);
+            end = offset + to;
+        }
+
+        private void flush(){
+            if (start < 0)
+                return;
+            ranges++;
+            bytes += end - start;
+            var shown = (int) Long.min(SHOWN_BYTES, end - start);
+            var more = end - start > SHOWN_BYTES ? " .." : "";
+            out.printf("[%08X] %d bytes ~ %s%s ~ %s%s%n", start, end - start,
+                    hex(shown_1, shown), more, hex(shown_2, shown), more);
+            start = -1;
+        }
+
+        private Summary summary(long size_1, long size_2){
+            flush();
+            return new Summary(size_1, size_2, ranges, bytes, !stopped);
+        }
     }
 
-    private static int sizeWarning(int size_1, int size_2){
-        var min = Integer.min(size_1, size_2);
-        System.out.printf("== WARNING : The two input have different sizes, we will only check the %d first bytes%n", min);
-        return min;
+    private static String hex(byte[] bytes, int length){
+        var text = new StringBuilder(3 * length);
+        for (var i = 0; i < length; i++) {
+            if (i > 0)
+                text.append(' ');
+            text.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16)).append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return text.toString();
     }
 
-    private static void showSameFileMessage(){
-        System.out.println("== WARNING : The two inputs have the same content");
+    /**
+     * Read bytes until the buffer is full or the end of the file is reached
+     * @return (int) - Number of bytes in the buffer
+     */
+    private static int fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+        return buffer.position();
     }
 
-    private static void compareAndShow(byte[] b1, byte[] b2, int size_to_check){
-        for (var i = 0; i < size_to_check; i++){
-            if (b1[i] != b2[i]){
-                System.out.printf("[%06X] ~ %02x ~ %02x%n", i, b1[i], b2[i]);
-            }
+    /**
+     * @return (PrintStream) - Buffered standard output, to flush before returning
+     */
+    private static PrintStream terminal(){
+        return new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+    }
+
+    private static void showHeader(PrintStream out, String file_1, String file_2, long size_1, long size_2){
+        out.println("========================================== DIFF ==========================================");
+        out.printf("== File 1 : '%s', size = %d bytes %n", file_1, size_1);
+        out.printf("== File 2 : '%s', size = %d bytes %n", file_2, size_2);
+        out.println("==========================================================================================");
+    }
+
+    private static void showSummary(PrintStream out, Summary summary){
+        if (summary.same()) {
+            out.println("== WARNING : The two inputs have the same content");
+            return;
         }
+        if (summary.size_1() != summary.size_2())
+            out.printf("== WARNING : The two input have different sizes, we only checked the %d first bytes%n",
+                    Long.min(summary.size_1(), summary.size_2()));
+        if (summary.complete())
+            out.printf("== %d differing bytes in %d ranges%n", summary.bytes(), summary.ranges());
+        else
+            out.printf("== Stopped after %d ranges (%d differing bytes), the next ones are not shown%n",
+                    summary.ranges(), summary.bytes());
     }
 
-    private static void showEnd(){
-        System.out.println("========================================= END DIFF =======================================");
+    private static void showEnd(PrintStream out){
+        out.println("========================================= END DIFF =======================================");
     }
 
-}
\ No newline at end of file
+}
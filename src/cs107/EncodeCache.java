@@ -0,0 +1,270 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Content-addressed cache of "Quite Ok Image" encodings.
+ * Images are identified by a 128-bit hash of their pixels and header fields, so encoding a
+ * pixel-identical image again only costs the hashing. Encodings are kept in a memory tier
+ * bounded in bytes and, optionally, in a directory on the disk that survives between runs.
+ * An entry of the disk tier is only used if it has the header of the image and ends with the
+ * "End Of File" marker, it is replaced otherwise. Concurrent misses on the same image share a
+ * single encoding.
+ *
+ * @apiNote The returned arrays are shared with the cache and must not be modified
+ * @version 1.3
+ * @since 1.4
+ */
+public final class EncodeCache {
+
+	private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME_3 = 0x165667B19E3779F9L;
+
+	private final long budget;
+	private final Path directory;
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+	// encodings in progress, the other callers asking for the same image wait for them
+	private final Map<String, CompletableFuture<byte[]>> pending = new HashMap<>();
+	private long bytes;
+	private long memoryHits;
+	private long diskHits;
+	private long misses;
+
+	/**
+	 * Snapshot of the cache counters
+	 *
+	 * @param memoryHits (long) - Number of encodings served from the memory tier (or from a pending encoding)
+	 * @param diskHits   (long) - Number of encodings served from the disk tier
+	 * @param misses     (long) - Number of images actually encoded
+	 * @param bytes      (long) - Size of the encodings currently in the memory tier
+	 */
+	public record Stats(long memoryHits, long diskHits, long misses, long bytes) {
+	}
+
+	/**
+	 * Create a cache with only a memory tier
+	 *
+	 * @param budget (long) - Maximal total size in bytes of the encodings kept in memory
+	 */
+	public EncodeCache(long budget) {
+		this(budget, null);
+	}
+
+	/**
+	 * Create a cache with a memory tier and a disk tier
+	 *
+	 * @param budget    (long) - Maximal total size in bytes of the encodings kept in memory
+	 * @param directory (Path) - Directory of the disk tier, created if needed. null to disable the disk tier
+	 * @throws RuntimeException if the directory cannot be created
+	 */
+	public EncodeCache(long budget, Path directory) {
+		assert budget >= 0;
+		this.budget = budget;
+		this.directory = directory;
+		if (directory != null) {
+			try {
+				Files.createDirectories(directory);
+			} catch (IOException e) {
+				Helper.fail("Cannot create directory '%s'", directory);
+			}
+		}
+	}
+
+	// ==================================================================================
+	// ==================================== CACHE API ===================================
+	// ==================================================================================
+
+	/**
+	 * Creates the representation in memory of the "Quite Ok Image" file, reusing
+	 * a previous encoding of the same pixels when there is one
+	 *
+	 * @param image (Helper.Image) - Image to encode
+	 * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+	 * @see QOIEncoder#qoiFile(Helper.Image)
+	 */
+	public byte[] qoiFile(Helper.Image image) {
+		assert image != null;
+		var key = key(image);
+
+		CompletableFuture<byte[]> future;
+		boolean owner = false;
+		synchronized (this) {
+			var cached = memory.get(key);
+			if (cached != null) {
+				memoryHits++;
+				return cached;
+			}
+			future = pending.get(key);
+			if (future != null) {
+				memoryHits++;
+			} else {
+				future = new CompletableFuture<>();
+				pending.put(key, future);
+				owner = true;
+			}
+		}
+		if (owner) {
+			load(key, image, future);
+		}
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof RuntimeException cause ? cause : e;
+		}
+	}
+
+	/**
+	 * @return (Stats) - Current value of the cache counters
+	 */
+	public synchronized Stats stats() {
+		return new Stats(memoryHits, diskHits, misses, bytes);
+	}
+
+	/**
+	 * Hash the pixels and the header fields of an image
+	 *
+	 * @param image (Helper.Image) - Image to hash
+	 * @return (String) - 32 hexadecimal digits identifying the image
+	 */
+	public static String key(Helper.Image image) {
+		int[][] data = image.data();
+		long h1 = PRIME_3 ^ data.length;
+		long h2 = PRIME_1 ^ data[0].length;
+		long header = (long) image.channels() << 8 | image.color_space();
+		h1 = round(h1, header);
+		h2 = round(h2, header);
+		for (int[] row : data) {
+			int x = 0;
+			for (; x + 1 < row.length; x += 2) {
+				long lane = (long) row[x] << 32 | (row[x + 1] & 0xFFFFFFFFL);
+				h1 = round(h1, lane);
+				h2 = round(h2, Long.rotateLeft(lane, 17));
+			}
+			if (x < row.length) {
+				h1 = round(h1, row[x]);
+				h2 = round(h2, ~row[x]);
+			}
+		}
+		return String.format("%016x%016x", avalanche(h1), avalanche(h2));
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private static long round(long accumulator, long input) {
+		accumulator += input * PRIME_2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * PRIME_1;
+	}
+
+	private static long avalanche(long hash) {
+		hash ^= hash >>> 33;
+		hash *= PRIME_2;
+		hash ^= hash >>> 29;
+		hash *= PRIME_3;
+		return hash ^ hash >>> 32;
+	}
+
+	/**
+	 * Read the encoding of an image from the disk tier or encode it, then complete the future
+	 * of the callers waiting for it
+	 */
+	private void load(String key, Helper.Image image, CompletableFuture<byte[]> future) {
+		try {
+			var file = directory == null ? null : directory.resolve(key + ".qoi");
+			byte[] content = null;
+			if (file != null && Files.isRegularFile(file)) {
+				try {
+					content = Files.readAllBytes(file);
+				} catch (IOException e) {
+					// unreadable entry, encode the image again
+				}
+				if (content != null && !matches(content, image)) {
+					// truncated or corrupted entry, replaced below
+					content = null;
+				}
+			}
+			boolean encoded = content == null;
+			if (encoded) {
+				content = QOIEncoder.qoiFile(image);
+			}
+			synchronized (this) {
+				if (encoded) {
+					misses++;
+				} else {
+					diskHits++;
+				}
+				remember(key, content);
+				pending.remove(key);
+			}
+			if (encoded && file != null) {
+				store(file, content);
+			}
+			future.complete(content);
+		} catch (RuntimeException | Error e) {
+			synchronized (this) {
+				pending.remove(key);
+			}
+			future.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Check that an entry of the disk tier starts with the header of the image and ends with the
+	 * "End Of File" marker, so a truncated or foreign file is never returned
+	 */
+	private static boolean matches(byte[] content, Helper.Image image) {
+		var header = QOIEncoder.qoiHeader(image);
+		int eof = QOISpecification.QOI_EOF.length;
+		if (content.length < header.length + eof) {
+			return false;
+		}
+		return ArrayUtils.equals(ArrayUtils.extract(content, 0, header.length), header)
+				&& ArrayUtils.equals(ArrayUtils.extract(content, content.length - eof, eof), QOISpecification.QOI_EOF);
+	}
+
+	private void remember(String key, byte[] content) {
+		if (content.length > budget || memory.containsKey(key)) {
+			return;
+		}
+		memory.put(key, content);
+		bytes += content.length;
+		var iterator = memory.entrySet().iterator();
+		while (bytes > budget) {
+			Map.Entry<String, byte[]> eldest = iterator.next();
+			bytes -= eldest.getValue().length;
+			iterator.remove();
+		}
+	}
+
+	private static void store(Path file, byte[] content) {
+		Path temporary = null;
+		try {
+			// write to a temporary file first so a concurrent reader never sees a partial entry
+			temporary = Files.createTempFile(file.getParent(), "encode", ".tmp");
+			Files.write(temporary, content);
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// the disk tier is best effort, the encoding is still returned
+			try {
+				if (temporary != null) {
+					Files.deleteIfExists(temporary);
+				}
+			} catch (IOException ignored) {
+				// nothing left to do
+			}
+		}
+	}
+
+}
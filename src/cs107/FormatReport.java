@@ -0,0 +1,280 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Comparison of "PNG" (through ImageIO) and "QOI" on a corpus.
+ * For each image : the size of both files, the median time of the decoding and of the encoding
+ * in both formats, and the peak of heap used by each of these four paths above the heap used
+ * before it. The table has one row per image and a last row with the totals, and is written
+ * in CSV or in Markdown.
+ * <pre>
+ * java -cp out cs107.FormatReport [--csv FILE] [--markdown FILE] [FILE or DIRECTORY...]
+ * </pre>
+ * Without arguments, the "PNG" images of 'references/' are compared and the Markdown table
+ * is printed. "QOI" files (e.g. from CorpusGenerator) are compared with their "PNG" encoding.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class FormatReport {
+
+	/**
+	 * Comparison of the formats on one image, the times are in milliseconds and the heaps in bytes
+	 *
+	 * @param image          (String) - Name of the image
+	 * @param pixels         (long) - Number of pixels
+	 * @param pngBytes       (long) - Size of the "PNG" file
+	 * @param qoiBytes       (long) - Size of the "QOI" file
+	 * @param pngDecode      (double) - Time to decode the "PNG" file
+	 * @param qoiDecode      (double) - Time to decode the "QOI" file
+	 * @param pngEncode      (double) - Time to encode the "PNG" file
+	 * @param qoiEncode      (double) - Time to encode the "QOI" file
+	 * @param pngDecodeHeap  (long) - Peak heap of the "PNG" decoding
+	 * @param qoiDecodeHeap  (long) - Peak heap of the "QOI" decoding
+	 * @param pngEncodeHeap  (long) - Peak heap of the "PNG" encoding
+	 * @param qoiEncodeHeap  (long) - Peak heap of the "QOI" encoding
+	 */
+	public record Row(String image, long pixels, long pngBytes, long qoiBytes,
+	                  double pngDecode, double qoiDecode, double pngEncode, double qoiEncode,
+	                  long pngDecodeHeap, long qoiDecodeHeap, long pngEncodeHeap, long qoiEncodeHeap) {
+
+		/**
+		 * @return (double) - Size of the "QOI" file relative to the "PNG" file
+		 */
+		public double sizeRatio() {
+			return (double) qoiBytes / pngBytes;
+		}
+	}
+
+	private static final String[] COLUMNS = {
+			"image", "pixels", "png bytes", "qoi bytes", "qoi/png size",
+			"png decode ms", "qoi decode ms", "png encode ms", "qoi encode ms",
+			"png decode heap MiB", "qoi decode heap MiB", "png encode heap MiB", "qoi encode heap MiB"
+	};
+
+	private static final int WARMUP = 2;
+	private static final int SAMPLES = 5;
+	private static final long MIN_NANOS = 10_000_000;
+
+	// Written with the results of the operations, so they are never dead code
+	private static volatile Object sink;
+
+	// Hide default constructor
+	private FormatReport() {
+	}
+
+	/**
+	 * Write the report from the command line
+	 *
+	 * @param args (String[]) - Options then files or directories of images
+	 * @throws IOException if an image cannot be read or the report cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		Path csv = null;
+		Path markdown = null;
+		var paths = new ArrayList<Path>();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--csv" -> csv = Path.of(args[++i]);
+				case "--markdown" -> markdown = Path.of(args[++i]);
+				default -> paths.add(Path.of(args[i]));
+			}
+		}
+		if (paths.isEmpty()) {
+			paths.add(Path.of("references"));
+		}
+
+		var rows = new ArrayList<Row>();
+		for (var file : images(paths)) {
+			rows.add(compare(file.getFileName().toString(), Files.readAllBytes(file)));
+		}
+		if (csv != null) {
+			try (var out = new PrintStream(Files.newOutputStream(csv), false, StandardCharsets.UTF_8)) {
+				printCsv(rows, out);
+			}
+		}
+		if (markdown != null) {
+			try (var out = new PrintStream(Files.newOutputStream(markdown), false, StandardCharsets.UTF_8)) {
+				printMarkdown(rows, out);
+			}
+		}
+		if (csv == null && markdown == null) {
+			printMarkdown(rows, System.out);
+		}
+	}
+
+	// ==================================================================================
+	// ================================== REPORT API ====================================
+	// ==================================================================================
+
+	/**
+	 * Compare the formats on one image
+	 *
+	 * @param name (String) - Name of the image
+	 * @param file (byte[]) - Content of the image file, "QOI" or any format read by ImageIO
+	 * @return (Row) - The comparison
+	 */
+	public static Row compare(String name, byte[] file) {
+		boolean isQoi = file.length >= 4 && ArrayUtils.equals(ArrayUtils.extract(file, 0, 4), QOISpecification.QOI_MAGIC);
+		var image = isQoi ? QOIDecoder.decodeQoiFile(file) : Helper.decodeImage(file);
+		long pixels = (long) image.data().length * image.data()[0].length;
+		// the original file is kept as the "PNG" reference when it is one
+		boolean isPng = file.length >= 4 && (file[0] & 0xFF) == 0x89 && file[1] == 'P' && file[2] == 'N' && file[3] == 'G';
+		byte[] pngFile = isPng ? file : Helper.encodePng(image);
+		byte[] qoi = isQoi ? file : QOIEncoder.qoiFile(image);
+
+		CodecBenchmark.Operation pngDecode = () -> Helper.decodeImage(pngFile);
+		CodecBenchmark.Operation qoiDecode = () -> QOIDecoder.decodeQoiFile(qoi);
+		CodecBenchmark.Operation pngEncode = () -> Helper.encodePng(image);
+		CodecBenchmark.Operation qoiEncode = () -> QOIEncoder.qoiFile(image);
+		return new Row(name, pixels, pngFile.length, qoi.length,
+				millis(name, pixels, pngDecode), millis(name, pixels, qoiDecode),
+				millis(name, pixels, pngEncode), millis(name, pixels, qoiEncode),
+				peakHeap(pngDecode), peakHeap(qoiDecode), peakHeap(pngEncode), peakHeap(qoiEncode));
+	}
+
+	/**
+	 * Sum the rows, the ratio of the total is the one of the total sizes
+	 *
+	 * @param rows (List of Row) - Rows to sum
+	 * @return (Row) - The totals, with the largest peaks of heap
+	 */
+	public static Row total(List<Row> rows) {
+		long pixels = 0, pngBytes = 0, qoiBytes = 0;
+		double pngDecode = 0, qoiDecode = 0, pngEncode = 0, qoiEncode = 0;
+		long pngDecodeHeap = 0, qoiDecodeHeap = 0, pngEncodeHeap = 0, qoiEncodeHeap = 0;
+		for (var row : rows) {
+			pixels += row.pixels();
+			pngBytes += row.pngBytes();
+			qoiBytes += row.qoiBytes();
+			pngDecode += row.pngDecode();
+			qoiDecode += row.qoiDecode();
+			pngEncode += row.pngEncode();
+			qoiEncode += row.qoiEncode();
+			pngDecodeHeap = Math.max(pngDecodeHeap, row.pngDecodeHeap());
+			qoiDecodeHeap = Math.max(qoiDecodeHeap, row.qoiDecodeHeap());
+			pngEncodeHeap = Math.max(pngEncodeHeap, row.pngEncodeHeap());
+			qoiEncodeHeap = Math.max(qoiEncodeHeap, row.qoiEncodeHeap());
+		}
+		return new Row("total", pixels, pngBytes, qoiBytes, pngDecode, qoiDecode, pngEncode, qoiEncode,
+				pngDecodeHeap, qoiDecodeHeap, pngEncodeHeap, qoiEncodeHeap);
+	}
+
+	/**
+	 * Print the rows and their total as CSV
+	 *
+	 * @param rows (List of Row) - Rows of the report
+	 * @param out  (PrintStream) - Where to print
+	 */
+	public static void printCsv(List<Row> rows, PrintStream out) {
+		out.println(String.join(",", COLUMNS));
+		for (var row : withTotal(rows)) {
+			out.println(String.join(",", cells(row)));
+		}
+	}
+
+	/**
+	 * Print the rows and their total as a Markdown table
+	 *
+	 * @param rows (List of Row) - Rows of the report
+	 * @param out  (PrintStream) - Where to print
+	 */
+	public static void printMarkdown(List<Row> rows, PrintStream out) {
+		out.println("| " + String.join(" | ", COLUMNS) + " |");
+		var separator = new StringBuilder("|");
+		for (int i = 0; i < COLUMNS.length; i++) {
+			separator.append(i == 0 ? " --- |" : " ---: |");
+		}
+		out.println(separator);
+		for (var row : withTotal(rows)) {
+			out.println("| " + String.join(" | ", cells(row)) + " |");
+		}
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private static List<Row> withTotal(List<Row> rows) {
+		var all = new ArrayList<>(rows);
+		all.add(total(rows));
+		return all;
+	}
+
+	private static String[] cells(Row row) {
+		return new String[]{
+				row.image().replace(",", "_").replace("|", "_"),
+				Long.toString(row.pixels()),
+				Long.toString(row.pngBytes()),
+				Long.toString(row.qoiBytes()),
+				String.format(Locale.ROOT, "%.3f", row.sizeRatio()),
+				String.format(Locale.ROOT, "%.3f", row.pngDecode()),
+				String.format(Locale.ROOT, "%.3f", row.qoiDecode()),
+				String.format(Locale.ROOT, "%.3f", row.pngEncode()),
+				String.format(Locale.ROOT, "%.3f", row.qoiEncode()),
+				String.format(Locale.ROOT, "%.1f", row.pngDecodeHeap() / 1048576.0),
+				String.format(Locale.ROOT, "%.1f", row.qoiDecodeHeap() / 1048576.0),
+				String.format(Locale.ROOT, "%.1f", row.pngEncodeHeap() / 1048576.0),
+				String.format(Locale.ROOT, "%.1f", row.qoiEncodeHeap() / 1048576.0)
+		};
+	}
+
+	private static double millis(String name, long pixels, CodecBenchmark.Operation operation) {
+		return CodecBenchmark.measure(name, "", pixels, 4 * pixels, WARMUP, SAMPLES, MIN_NANOS, operation).medianNanos() / 1e6;
+	}
+
+	/**
+	 * Peak of heap used by one call, above the heap used before it. The garbage collector may run
+	 * during the call, the peak is then the one of the live objects plus the garbage between two
+	 * collections, as in a real process
+	 */
+	private static long peakHeap(CodecBenchmark.Operation operation) {
+		var pools = new ArrayList<MemoryPoolMXBean>();
+		for (var pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				pools.add(pool);
+			}
+		}
+		System.gc();
+		long before = 0;
+		for (var pool : pools) {
+			before += pool.getUsage().getUsed();
+			pool.resetPeakUsage();
+		}
+		sink = operation.run();
+		long peak = 0;
+		for (var pool : pools) {
+			peak += pool.getPeakUsage().getUsed();
+		}
+		return Math.max(0, peak - before);
+	}
+
+	private static List<Path> images(List<Path> paths) throws IOException {
+		var files = new ArrayList<Path>();
+		for (var path : paths) {
+			if (Files.isDirectory(path)) {
+				try (Stream<Path> listing = Files.list(path)) {
+					files.addAll(listing.filter(file -> file.getFileName().toString().endsWith(".png"))
+							.sorted().collect(Collectors.toList()));
+				}
+			} else {
+				files.add(path);
+			}
+		}
+		return files;
+	}
+
+}
@@ -1,11 +1,13 @@
 package cs107;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 
 /**
@@ -22,16 +24,26 @@ public final class Helper {
 
     private static final String res_folder = "res";
 
-    static {
-        var file = new File(res_folder);
-        if(file.exists()){
-            if (!file.isDirectory()){
-                fail("File %s is not a directory.", res_folder);
+    /**
+     * The "res/" folder is only created by the first write, so the programs that
+     * never write into it (and the error paths calling fail) have no side effect
+     */
+    private static final class ResFolder {
+
+        private static final String PATH;
+
+        static {
+            var file = new File(res_folder);
+            if(file.exists()){
+                if (!file.isDirectory()){
+                    fail("File %s is not a directory.", res_folder);
+                }
+            }else{
+                var b = file.mkdir();
+                if(!b)
+                    fail("Cannot create directory '%s'", res_folder);
             }
-        }else{
-            var b = file.mkdir();
-            if(!b)
-                fail("Cannot create directory '%s'", res_folder);
+            PATH = res_folder;
         }
     }
 
@@ -92,49 +104,130 @@ public final class Helper {
      * @return (Image) - The corresponding Image
      */
     public static Image readImage(String path) {
+        var event = new CodecEvents.FileIO("readImage", path);
+        event.begin();
         try{
-            var io = ImageIO.read(new File(path));
-            var width  = io.getWidth();
-            var height = io.getHeight();
-            var array = new int[height][width];
-            for(var x = 0; x < height;++x){
-                for(var y = 0 ;y < width; ++y){
-                    array[x][y] = io.getRGB(y, x);
-                }
-            }
-            var nbrChannels = (byte) (io.getColorModel().hasAlpha() ? 4 : 3);
-            return new Image(array, nbrChannels, (byte) 0);
+            var file = new File(path);
+            var image = ImageIOSupport.read(file);
+            if(image == null)
+                return fail("An error occurred while trying to read from : \"%s\"%n", path);
+            event.finish(image.data[0].length, image.data.length, image.channels, file.length(), 0);
+            return image;
         }catch (IOException e){
             return fail("An error occurred while trying to read from : \"%s\"%n", path);
         }
 
     }
 
+    /**
+     * Decode an image stored in memory. The image can be one of
+     * the standard formats (png, jpeg ...)
+     * @param content (byte[]) - Content of the image file
+     * @return (Image) - The corresponding Image
+     */
+    public static Image decodeImage(byte[] content) {
+        return decodeImage(content, null);
+    }
+
+    /**
+     * Decode an image stored in memory, timing the ImageIO decoding and the pixel conversion
+     * @param content (byte[]) - Content of the image file
+     * @param timer (StageTimer) - Timer of the conversion, may be null
+     * @return (Image) - The corresponding Image
+     */
+    public static Image decodeImage(byte[] content, StageTimer timer) {
+        return decodeImage(new ByteArrayInputStream(content), timer);
+    }
+
+    /**
+     * Decode an image from a stream. The image can be one of
+     * the standard formats (png, jpeg ...)
+     * @param input (InputStream) - Stream containing the image file, it is not closed
+     * @return (Image) - The corresponding Image
+     */
+    public static Image decodeImage(InputStream input) {
+        return decodeImage(input, null);
+    }
+
+    /**
+     * Decode an image from a stream, timing the ImageIO decoding and the pixel conversion
+     * @param input (InputStream) - Stream containing the image file, it is not closed
+     * @param timer (StageTimer) - Timer of the conversion, may be null
+     * @return (Image) - The corresponding Image
+     */
+    public static Image decodeImage(InputStream input, StageTimer timer) {
+        try{
+            var image = ImageIOSupport.read(input, timer);
+            if(image == null)
+                return fail("Unsupported image format");
+            return image;
+        }catch (IOException e){
+            return fail("An error occurred while trying to decode an image");
+        }
+    }
+
     /**
      * Write an image as "PNG" in the disk. This function writes to the folder called "res/"
      * @param path (String) - Relative or Absolute path to the image
      * @param image (Image) - Image to store
      */
     public static void writeImage(String path, Image image) {
-        int type = switch (image.channels){
-            case 3 -> BufferedImage.TYPE_3BYTE_BGR;
-            case 4 -> BufferedImage.TYPE_4BYTE_ABGR;
-            default -> fail("Cannot write this image, image.channels() == %d", image.channels);
-        };
-        var buffer = new BufferedImage(image.data[0].length, image.data.length, type);
-        for(var x = 0; x < buffer.getHeight(); ++x){
-            for(var y = 0 ; y < buffer.getWidth(); ++y){
-                buffer.setRGB(y, x, image.data[x][y]);
-            }
-        }
-        var abs_path = res_folder + File.separator + path;
+        var abs_path = ResFolder.PATH + File.separator + path;
+        var event = new CodecEvents.FileIO("writeImage", abs_path);
+        event.begin();
         try {
-            ImageIO.write(buffer, "png", new File(abs_path));
+            var file = new File(abs_path);
+            ImageIOSupport.writePng(image, file);
+            event.finish(image.data[0].length, image.data.length, image.channels, 0, file.length());
         }catch (IOException e){
             fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
         }
     }
 
+    /**
+     * Encode an image as "PNG" in memory
+     * @param image (Image) - Image to encode
+     * @return (byte[]) - Content of the "PNG" file
+     */
+    public static byte[] encodePng(Image image) {
+        return encodePng(image, (StageTimer) null);
+    }
+
+    /**
+     * Encode an image as "PNG" in memory, timing the pixel conversion and the ImageIO encoding
+     * @param image (Image) - Image to encode
+     * @param timer (StageTimer) - Timer of the conversion, may be null
+     * @return (byte[]) - Content of the "PNG" file
+     */
+    public static byte[] encodePng(Image image, StageTimer timer) {
+        var output = new ByteArrayOutputStream();
+        encodePng(image, output, timer);
+        return output.toByteArray();
+    }
+
+    /**
+     * Encode an image as "PNG" to a stream
+     * @param image (Image) - Image to encode
+     * @param output (OutputStream) - Stream where to write the "PNG" file, it is not closed
+     */
+    public static void encodePng(Image image, OutputStream output) {
+        encodePng(image, output, null);
+    }
+
+    /**
+     * Encode an image as "PNG" to a stream, timing the pixel conversion and the ImageIO encoding
+     * @param image (Image) - Image to encode
+     * @param output (OutputStream) - Stream where to write the "PNG" file, it is not closed
+     * @param timer (StageTimer) - Timer of the conversion, may be null
+     */
+    public static void encodePng(Image image, OutputStream output, StageTimer timer) {
+        try {
+            ImageIOSupport.writePng(image, output, timer);
+        }catch (IOException e){
+            fail("An error occurred while trying to encode an image");
+        }
+    }
+
     // ==================================================================================
     // ======================== BINARY FILE MANIPULATION METHODS ========================
     // ==================================================================================
@@ -145,8 +238,12 @@ public final class Helper {
      * @return (byte[]) - File content as stored in memory
      */
     public static byte[] read(String path) {
+        var event = new CodecEvents.FileIO("read", path);
+        event.begin();
         try(var input = new FileInputStream(path)){
-            return input.readAllBytes();
+            var content = input.readAllBytes();
+            event.finish(0, 0, 0, content.length, 0);
+            return content;
         } catch (IOException e){
             return fail("An error occurred while trying to read from : \"%s\"%n", path);
         }
@@ -158,11 +255,14 @@ public final class Helper {
      * @param content (byte[]) - Content of the file.
      */
     public static void write(String path, byte[] content){
-        var abs_path = res_folder + File.separator + path;
+        var abs_path = ResFolder.PATH + File.separator + path;
+        var event = new CodecEvents.FileIO("write", abs_path);
+        event.begin();
         try(var output = new FileOutputStream(abs_path)){
             for (var b : content){
                 output.write(b);
             }
+            event.finish(0, 0, 0, 0, content.length);
         }catch (IOException e){
             fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
         }
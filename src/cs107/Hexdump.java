@@ -1,13 +1,55 @@
 package cs107;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
 /**
- * Utility class used to simulate the Unix command "hexdump"
+ * Utility class used to simulate the Unix command "hexdump".
+ * Files are dumped page by page : only the requested range of addresses is read, chunk by
+ * chunk, so a few lines can be inspected anywhere in a file of any size.
+ * <pre>
+ * java -cp out cs107.Hexdump [--from ADDRESS] [--to ADDRESS] [--page N [--page-size BYTES]] FILE
+ * </pre>
  * @author Hamza REMMAL (hamza.remmal@epfl.ch)
  * @version 1.3
  * @since 1.0
  */
 public final class Hexdump {
 
+    /** Default number of bytes of a page of the command line */
+    public static final int PAGE_SIZE = 4096;
+
+    // Number of bytes per line
+    private static final int LINE_BYTES = 10;
+
+    // Size of the chunks read from the files, a whole number of lines
+    private static final int CHUNK_SIZE = LINE_BYTES * 6554;
+
+    private static final String SEPARATOR = "==========================================================================================";
+
+    // Two hexadecimal digits for each value of a byte
+    private static final char[] HEX = new char[512];
+
+    // Character shown for each value of a byte
+    private static final char[] DISPLAY = new char[256];
+
+    static {
+        var digits = "0123456789ABCDEF";
+        for (var i = 0; i < 256; i++) {
+            HEX[2 * i] = digits.charAt(i >> 4);
+            HEX[2 * i + 1] = digits.charAt(i & 0xF);
+            DISPLAY[i] = i >= 0x20 && i < 0x7F ? (char) i : '.';
+        }
+    }
+
     // ============================================================================================
     // ================================== HEXDUMP API =============================================
     // ============================================================================================
@@ -64,11 +106,171 @@ public final class Hexdump {
         System.out.println("==========================================================================================");
     }
 
+    /**
+     * Print the content of a file between two addresses in a hexadecimal form
+     * in the Terminal
+     * @param file (Path) - File to print
+     * @param start_address (long) - Address from which we start printing
+     * @param end_address (long) - Address from which we stop printing, included
+     * @throws RuntimeException if the file cannot be read (an UncheckedIOException with the
+     * cause) or the addresses are outside the file
+     */
+    public static void hexdump(Path file, long start_address, long end_address){
+        var out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), 1 << 16);
+        try {
+            hexdump(file, start_address, end_address, out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("An error occurred while trying to dump : \"%s\"", file), e);
+        }
+    }
+
+    /**
+     * Write the content of a file between two addresses in a hexadecimal form.
+     * Only these bytes are read. The lines have the same layout as the ones of
+     * the arrays, the last one is padded so that the columns stay aligned, and only
+     * the printable ASCII characters are shown
+     * @param file (Path) - File to dump
+     * @param start_address (long) - Address from which we start printing
+     * @param end_address (long) - Address from which we stop printing, included. It is
+     * lowered to the last address of the file
+     * @param out (Writer) - Where to write the lines, it is not flushed
+     * @return (long) - Number of bytes dumped
+     * @throws IOException if the file cannot be read or the output cannot be written
+     * @throws RuntimeException if the addresses are outside the file or in the wrong order
+     */
+    public static long hexdump(Path file, long start_address, long end_address, Writer out) throws IOException {
+        assert file != null && out != null;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (start_address < 0 || start_address >= size)
+                Helper.fail("The start address %X is outside the file of %d bytes", start_address, size);
+            if (end_address < start_address)
+                Helper.fail("The end address %X is before the start address %X", end_address, start_address);
+            end_address = Long.min(end_address, size - 1);
+
+            // at least the 6 digits of the arrays, more for the large files
+            var address_digits = Integer.max(6, (67 - Long.numberOfLeadingZeros(end_address)) / 4);
+            var line = new char[address_digits + 3 + 3 * LINE_BYTES + 3 + LINE_BYTES + 3];
+            var chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            var address = start_address;
+            out.write(SEPARATOR);
+            out.write('\n');
+            channel.position(start_address);
+            while (address <= end_address) {
+                chunk.clear();
+                chunk.limit((int) Long.min(CHUNK_SIZE, end_address - address + 1));
+                while (chunk.hasRemaining())
+                    if (channel.read(chunk) < 0)
+                        Helper.fail("The file \"%s\" was truncated while being dumped", file);
+                for (var i = 0; i < chunk.limit(); i += LINE_BYTES) {
+                    var count = Integer.min(LINE_BYTES, chunk.limit() - i);
+                    out.write(line, 0, formatLine(line, address_digits, address + i, chunk.array(), i, count));
+                }
+                address += chunk.limit();
+            }
+            out.write(SEPARATOR);
+            out.write('\n');
+            return end_address - start_address + 1;
+        }
+    }
+
+    /**
+     * Dump a page of a file from the command line
+     * @param args (String[]) - Options then the path of the file
+     */
+    public static void main(String[] args){
+        long start_address = 0;
+        long end_address = Long.MAX_VALUE;
+        long page = -1;
+        long page_size = PAGE_SIZE;
+        String file = null;
+        var valid = true;
+        for (var i = 0; i < args.length && valid; i++) {
+            switch (args[i]) {
+                case "--from" -> {
+                    valid = ++i < args.length && number(args[i]) >= 0;
+                    start_address = valid ? number(args[i]) : start_address;
+                }
+                case "--to" -> {
+                    valid = ++i < args.length && number(args[i]) >= 0;
+                    end_address = valid ? number(args[i]) : end_address;
+                }
+                case "--page" -> {
+                    valid = ++i < args.length && number(args[i]) >= 0;
+                    page = valid ? number(args[i]) : page;
+                }
+                case "--page-size" -> {
+                    valid = ++i < args.length && number(args[i]) > 0;
+                    page_size = valid ? number(args[i]) : page_size;
+                }
+                default -> file = args[i];
+            }
+        }
+        // the last address of the page must fit in a long
+        if (valid && page >= 0 && page > (Long.MAX_VALUE - page_size + 1) / page_size)
+            valid = false;
+        if (!valid || file == null) {
+            System.err.println("usage : java cs107.Hexdump [--from ADDRESS] [--to ADDRESS] [--page N [--page-size BYTES]] FILE");
+            System.exit(2);
+        }
+        if (page >= 0) {
+            start_address = page * page_size;
+            end_address = start_address + page_size - 1;
+        }
+        hexdump(Path.of(file), start_address, end_address);
+    }
+
     // ============================================================================================
 
     // Hide default constructor
     private Hexdump(){}
 
+    /**
+     * Parse a decimal, hexadecimal ("0x") or octal ("0") number of the command line
+     * @return (long) - The number, -1 if the text is not a non-negative number
+     */
+    private static long number(String text){
+        try {
+            return Long.decode(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Format one line of the dump of a file
+     * @return (int) - Number of characters of the line, end of line included
+     */
+    private static int formatLine(char[] line, int address_digits, long address, byte[] b, int from, int count){
+        var n = 0;
+        for (var i = address_digits - 1; i >= 0; i--)
+            line[n + i] = HEX[2 * (int) ((address >>> (4 * (address_digits - 1 - i))) & 0xF) + 1];
+        n += address_digits;
+        line[n++] = ' ';
+        line[n++] = ':';
+        line[n++] = ' ';
+        for (var i = 0; i < LINE_BYTES; i++) {
+            if (i < count) {
+                var value = b[from + i] & 0xFF;
+                line[n++] = HEX[2 * value];
+                line[n++] = HEX[2 * value + 1];
+            } else {
+                line[n++] = ' ';
+                line[n++] = ' ';
+            }
+            line[n++] = ' ';
+        }
+        line[n++] = '|';
+        line[n++] = ' ';
+        for (var i = 0; i < count; i++)
+            line[n++] = DISPLAY[b[from + i] & 0xFF];
+        line[n++] = ' ';
+        line[n++] = '|';
+        line[n++] = '\n';
+        return n;
+    }
+
     private static String dump_1byte(int addr, byte[] b){
         var fmt = "%06X : %02X | %c |%n";
         return String.format(fmt, addr, b[addr], display_char(b[addr]));
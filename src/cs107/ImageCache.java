@@ -0,0 +1,210 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Thread-safe cache of decoded "Quite Ok Image" files.
+ * Entries are keyed by the path of the file together with its modification time and size,
+ * so a file rewritten on the disk is decoded again, and replaces the older versions of the file.
+ * The key is read again after the file, a file changed while being read is decoded but not
+ * cached. The cache is bounded by the total size of
+ * the decoded pixels and evicts the least recently used images first. Concurrent misses on the
+ * same key share a single decoding.
+ *
+ * @apiNote The cached images are shared between all the callers and must not be modified
+ * @version 1.3
+ * @since 1.4
+ */
+public final class ImageCache {
+
+	/**
+	 * Identity of a file on the disk
+	 *
+	 * @param path     (String) - Absolute and normalised path of the file
+	 * @param modified (long) - Last modification time in milliseconds
+	 * @param size     (long) - Size of the file in bytes
+	 */
+	public record Key(String path, long modified, long size) {
+	}
+
+	/**
+	 * Snapshot of the cache counters
+	 *
+	 * @param hits      (long) - Number of lookups served from the cache (or from a pending decoding)
+	 * @param misses    (long) - Number of lookups that triggered a decoding
+	 * @param evictions (long) - Number of images evicted to respect the budget
+	 * @param entries   (int) - Number of images currently in the cache
+	 * @param bytes     (long) - Total size of the decoded pixels currently in the cache
+	 */
+	public record Stats(long hits, long misses, long evictions, int entries, long bytes) {
+	}
+
+	private static final class Entry {
+		private final CompletableFuture<Helper.Image> image = new CompletableFuture<>();
+		private long weight;
+	}
+
+	private final long budget;
+	// access ordered, the eldest entry is the least recently used one
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Create an empty cache
+	 *
+	 * @param budget (long) - Maximal total size in bytes of the decoded pixels kept in the cache
+	 */
+	public ImageCache(long budget) {
+		assert budget > 0;
+		this.budget = budget;
+	}
+
+	// ==================================================================================
+	// ==================================== CACHE API ===================================
+	// ==================================================================================
+
+	/**
+	 * Get the decoded image stored in a "Quite Ok Image" file, decoding it if
+	 * it is not in the cache yet
+	 *
+	 * @param path (String) - Relative or Absolute path to the file
+	 * @return (Helper.Image) - The decoded image
+	 * @throws RuntimeException if the file cannot be read or decoded
+	 */
+	public Helper.Image get(String path) {
+		var key = keyOf(path);
+		Entry entry;
+		boolean owner = false;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry != null) {
+				hits++;
+			} else {
+				misses++;
+				// the older versions of the file will never be asked again
+				remove(key.path());
+				entry = new Entry();
+				entries.put(key, entry);
+				owner = true;
+			}
+		}
+		if (owner) {
+			load(key, entry);
+		}
+		try {
+			return entry.image.join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof RuntimeException cause ? cause : e;
+		}
+	}
+
+	/**
+	 * Remove all the cached versions of a file
+	 *
+	 * @param path (String) - Relative or Absolute path to the file
+	 */
+	public synchronized void invalidate(String path) {
+		remove(Path.of(path).toAbsolutePath().normalize().toString());
+	}
+
+	/**
+	 * Remove all the images from the cache
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @return (Stats) - Current value of the cache counters
+	 */
+	public synchronized Stats stats() {
+		return new Stats(hits, misses, evictions, entries.size(), bytes);
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	/**
+	 * Compute the key identifying the current version of a file
+	 *
+	 * @param path (String) - Relative or Absolute path to the file
+	 * @return (Key) - Key of the file
+	 */
+	public static Key keyOf(String path) {
+		var file = Path.of(path).toAbsolutePath().normalize();
+		try {
+			var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			return new Key(file.toString(), attributes.lastModifiedTime().toMillis(), attributes.size());
+		} catch (IOException e) {
+			return Helper.fail("An error occurred while trying to read from : \"%s\"", path);
+		}
+	}
+
+	private void load(Key key, Entry entry) {
+		Helper.Image image;
+		boolean unchanged;
+		try {
+			var content = Helper.read(key.path());
+			// the key was read before the file, the content is the one of the key only if it did not change
+			unchanged = key.equals(keyOf(key.path()));
+			image = QOIDecoder.decodeQoiFile(content);
+		} catch (RuntimeException | Error e) {
+			synchronized (this) {
+				entries.remove(key, entry);
+			}
+			entry.image.completeExceptionally(e);
+			throw e;
+		}
+		synchronized (this) {
+			if (!unchanged) {
+				entries.remove(key, entry);
+			} else if (entries.get(key) == entry) {
+				entry.weight = 4L * image.data().length * image.data()[0].length;
+				bytes += entry.weight;
+				evict();
+			}
+		}
+		entry.image.complete(image);
+	}
+
+	/**
+	 * Remove all the entries of a file, the caller holds the lock
+	 *
+	 * @param path (String) - Absolute and normalised path to the file
+	 */
+	private void remove(String path) {
+		entries.entrySet().removeIf(e -> {
+			if (e.getKey().path().equals(path)) {
+				bytes -= e.getValue().weight;
+				return true;
+			}
+			return false;
+		});
+	}
+
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (bytes > budget && iterator.hasNext()) {
+			var entry = iterator.next();
+			// images being decoded have no weight yet
+			if (entry.weight > 0) {
+				iterator.remove();
+				bytes -= entry.weight;
+				evictions++;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package cs107;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Conversions between Helper.Image and the ImageIO library.
+ * They are kept out of Helper so the programs that only read and write "QOI" files
+ * never load the AWT and ImageIO classes, which are the largest part of their startup time.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+final class ImageIOSupport {
+
+    // Hide default constructor
+    private ImageIOSupport(){}
+
+    /**
+     * Decode an image file
+     * @param file (File) - File to read
+     * @return (Helper.Image) - The corresponding Image, null if the format is not supported
+     * @throws IOException if the file cannot be read
+     */
+    static Helper.Image read(File file) throws IOException {
+        var io = ImageIO.read(file);
+        return io == null ? null : toImage(io);
+    }
+
+    /**
+     * Decode an image from a stream
+     * @param input (InputStream) - Stream containing the image file, it is not closed
+     * @return (Helper.Image) - The corresponding Image, null if the format is not supported
+     * @throws IOException if the stream cannot be read
+     */
+    static Helper.Image read(InputStream input) throws IOException {
+        return read(input, null);
+    }
+
+    /**
+     * Decode an image from a stream, timing the decoding and the conversion of the pixels
+     * @param input (InputStream) - Stream containing the image file, it is not closed
+     * @param timer (StageTimer) - Timer of the conversion, may be null
+     * @return (Helper.Image) - The corresponding Image, null if the format is not supported
+     * @throws IOException if the stream cannot be read
+     */
+    static Helper.Image read(InputStream input, StageTimer timer) throws IOException {
+        long mark = StageTimer.now(timer);
+        var io = ImageIO.read(input);
+        if (io == null)
+            return null;
+        mark = StageTimer.lap(timer, StageTimer.Stage.IMAGE_IO, mark);
+        var image = toImage(io);
+        StageTimer.lap(timer, StageTimer.Stage.PIXELS, mark);
+        return image;
+    }
+
+    /**
+     * Encode an image as "PNG" in a file
+     * @param image (Helper.Image) - Image to encode
+     * @param file (File) - Destination file
+     * @throws IOException if the file cannot be written
+     */
+    static void writePng(Helper.Image image, File file) throws IOException {
+        ImageIO.write(toBufferedImage(image), "png", file);
+    }
+
+    /**
+     * Encode an image as "PNG" to a stream
+     * @param image (Helper.Image) - Image to encode
+     * @param output (OutputStream) - Destination stream, it is not closed
+     * @throws IOException if the stream cannot be written
+     */
+    static void writePng(Helper.Image image, OutputStream output) throws IOException {
+        writePng(image, output, null);
+    }
+
+    /**
+     * Encode an image as "PNG" to a stream, timing the conversion of the pixels and the encoding
+     * @param image (Helper.Image) - Image to encode
+     * @param output (OutputStream) - Destination stream, it is not closed
+     * @param timer (StageTimer) - Timer of the conversion, may be null
+     * @throws IOException if the stream cannot be written
+     */
+    static void writePng(Helper.Image image, OutputStream output, StageTimer timer) throws IOException {
+        long mark = StageTimer.now(timer);
+        var buffer = toBufferedImage(image);
+        mark = StageTimer.lap(timer, StageTimer.Stage.PIXELS, mark);
+        ImageIO.write(buffer, "png", output);
+        StageTimer.lap(timer, StageTimer.Stage.IMAGE_IO, mark);
+    }
+
+    // ==================================================================================
+    // ================================= HELPER METHODS =================================
+    // ==================================================================================
+
+    private static Helper.Image toImage(BufferedImage io){
+        var width  = io.getWidth();
+        var height = io.getHeight();
+        var array = new int[height][width];
+        for(var x = 0; x < height;++x){
+            for(var y = 0 ;y < width; ++y){
+                array[x][y] = io.getRGB(y, x);
+            }
+        }
+        var nbrChannels = (byte) (io.getColorModel().hasAlpha() ? 4 : 3);
+        return new Helper.Image(array, nbrChannels, (byte) 0);
+    }
+
+    private static BufferedImage toBufferedImage(Helper.Image image){
+        int type = switch (image.channels()){
+            case 3 -> BufferedImage.TYPE_3BYTE_BGR;
+            case 4 -> BufferedImage.TYPE_4BYTE_ABGR;
+            default -> Helper.fail("Cannot write this image, image.channels() == %d", image.channels());
+        };
+        var buffer = new BufferedImage(image.data()[0].length, image.data().length, type);
+        for(var x = 0; x < buffer.getHeight(); ++x){
+            for(var y = 0 ; y < buffer.getWidth(); ++y){
+                buffer.setRGB(y, x, image.data()[x][y]);
+            }
+        }
+        return buffer;
+    }
+
+}
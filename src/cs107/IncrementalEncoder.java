@@ -0,0 +1,163 @@
+package cs107;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * "Quite Ok Image" Encoder for successive frames that differ in a few rows.
+ * The encoder keeps the last encoding together with its state every few rows.
+ * When a new frame only changes some rows, the encoding before the checkpoint preceding
+ * the first changed row is reused as is, and once the encoder state after the last
+ * changed row matches the previous encoding again, the rest of the previous encoding
+ * is reused as well.
+ *
+ * @apiNote Instances are not thread-safe
+ * @version 1.3
+ * @since 1.4
+ */
+public final class IncrementalEncoder {
+
+	/**
+	 * Default number of rows between two checkpoints
+	 */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 16;
+
+	private final int checkpointInterval;
+
+	private byte[] previous;
+	private QOIStreamEncoder encoder;
+	private int width;
+	private int height;
+	private byte channels;
+	private byte colorSpace;
+	// checkpoints.get(k) is the encoder state at the start of row k * checkpointInterval
+	private List<QOIStreamEncoder.Checkpoint> checkpoints = new ArrayList<>();
+
+	/**
+	 * Create an encoder with the default checkpoint interval
+	 */
+	public IncrementalEncoder() {
+		this(DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * Create an encoder
+	 *
+	 * @param checkpointInterval (int) - Number of rows between two saved encoder states
+	 */
+	public IncrementalEncoder(int checkpointInterval) {
+		assert checkpointInterval > 0;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	// ==================================================================================
+	// ================================ ENCODING METHODS ================================
+	// ==================================================================================
+
+	/**
+	 * Encode a frame from scratch
+	 *
+	 * @param image (Helper.Image) - Frame to encode
+	 * @return (byte[]) - Binary representation of the "Quite Ok File" of the frame
+	 */
+	public byte[] qoiFile(Helper.Image image) {
+		assert image != null;
+		int[][] data = image.data();
+		width = data[0].length;
+		height = data.length;
+		channels = image.channels();
+		colorSpace = image.color_space();
+		checkpoints = new ArrayList<>();
+
+		var output = new ByteArrayOutputStream();
+		try {
+			encoder = new QOIStreamEncoder(output, width, height, channels, colorSpace);
+			encodeRows(data, 0, output, null, -1);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		previous = output.toByteArray();
+		return previous;
+	}
+
+	/**
+	 * Encode a frame that only differs from the previous one in the given rows
+	 *
+	 * @param image          (Helper.Image) - Frame to encode
+	 * @param firstDirtyRow  (int) - First row that may differ from the previous frame
+	 * @param lastDirtyRow   (int) - Last row that may differ from the previous frame
+	 * @return (byte[]) - Binary representation of the "Quite Ok File" of the frame
+	 * @apiNote The rows outside the given range MUST be the same as in the previous frame,
+	 * otherwise the encoding is wrong. The frame is encoded from scratch when there is no
+	 * previous frame or when the dimensions or header fields changed
+	 */
+	public byte[] qoiFile(Helper.Image image, int firstDirtyRow, int lastDirtyRow) {
+		assert image != null;
+		assert 0 <= firstDirtyRow && firstDirtyRow <= lastDirtyRow;
+		int[][] data = image.data();
+		if (previous == null || data.length != height || data[0].length != width
+				|| image.channels() != channels || image.color_space() != colorSpace) {
+			return qoiFile(image);
+		}
+		assert lastDirtyRow < height;
+
+		int nearest = firstDirtyRow / checkpointInterval;
+		var start = checkpoints.get(nearest);
+		var output = new ByteArrayOutputStream(previous.length);
+		output.write(previous, 0, (int) start.offset());
+
+		var old = checkpoints;
+		checkpoints = new ArrayList<>(old.subList(0, nearest));
+		try {
+			encoder = new QOIStreamEncoder(output, encoder, start);
+			encodeRows(data, nearest * checkpointInterval, output, old, lastDirtyRow);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		previous = output.toByteArray();
+		return previous;
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	/**
+	 * Encode the rows from firstRow to the end of the frame. After lastDirtyRow, the
+	 * encoding stops as soon as the state matches a checkpoint of the previous encoding
+	 * and the rest of the previous encoding is copied instead
+	 */
+	private void encodeRows(int[][] data, int firstRow, ByteArrayOutputStream output,
+	                        List<QOIStreamEncoder.Checkpoint> old, int lastDirtyRow) throws IOException {
+		for (int y = firstRow; y < height; y++) {
+			if (y % checkpointInterval == 0) {
+				var checkpoint = encoder.checkpoint();
+				int k = y / checkpointInterval;
+				if (old != null && y > lastDirtyRow && checkpoint.sameState(old.get(k))) {
+					reuseSuffix(output, checkpoint, old, k);
+					return;
+				}
+				checkpoints.add(checkpoint);
+			}
+			encoder.writeRow(data[y]);
+		}
+		encoder.finish();
+	}
+
+	private void reuseSuffix(ByteArrayOutputStream output, QOIStreamEncoder.Checkpoint checkpoint,
+	                         List<QOIStreamEncoder.Checkpoint> old, int k) throws IOException {
+		encoder.flush();
+		var from = old.get(k);
+		long shift = checkpoint.offset() - from.offset();
+		output.write(previous, (int) from.offset(), previous.length - (int) from.offset());
+		for (int i = k; i < old.size(); i++) {
+			var c = old.get(i);
+			checkpoints.add(new QOIStreamEncoder.Checkpoint(c.offset() + shift, c.position(),
+					c.previousPixel(), c.indexHashTable(), c.counter()));
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package cs107;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of durations in nanoseconds.
+ * Values are counted in log-linear buckets : each power of two is split in 8 sub-buckets,
+ * so percentiles are reported with a relative error below 12.5%. Recording a value only
+ * increments striped counters and never blocks other threads.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final LongAdder[] buckets = new LongAdder[64 * SUB_BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+
+	/**
+	 * Create an empty histogram
+	 */
+	public LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a duration
+	 *
+	 * @param nanos (long) - Duration in nanoseconds, negative values are counted as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		buckets[bucket(value)].increment();
+		count.increment();
+		total.add(value);
+	}
+
+	/**
+	 * @return (long) - Number of recorded durations
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+	/**
+	 * @return (long) - Sum of the recorded durations in nanoseconds
+	 */
+	public long total() {
+		return total.sum();
+	}
+
+	/**
+	 * Compute an approximation of a percentile
+	 *
+	 * @param percentile (double) - Percentile between 0 and 100
+	 * @return (long) - Upper bound in nanoseconds of the bucket containing the percentile, 0 if empty
+	 */
+	public long percentile(double percentile) {
+		assert percentile >= 0 && percentile <= 100;
+		long[] counts = new long[buckets.length];
+		long sum = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			counts[i] = buckets[i].sum();
+			sum += counts[i];
+		}
+		if (sum == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * sum));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return upperBound(i);
+			}
+		}
+		return upperBound(counts.length - 1);
+	}
+
+	/**
+	 * Forget all the recorded durations
+	 */
+	public void reset() {
+		for (var bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		total.reset();
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long lower = (1L << exponent) | sub << (exponent - SUB_BUCKET_BITS);
+		return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+}
@@ -0,0 +1,215 @@
+package cs107;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lazily decoded "Quite Ok Image".
+ * Only the header is read when the image is created, the rows are decoded on demand.
+ * The decoder state is saved every few rows so a row can be decoded by resuming from the
+ * nearest checkpoint before it, and the most recently used rows are kept in a bounded cache.
+ *
+ * @apiNote Pixels are ARGB packed integers, the same format as Helper.Image::data
+ * @version 1.3
+ * @since 1.4
+ */
+public final class LazyImage {
+
+	/**
+	 * Default number of decoded rows kept in memory
+	 */
+	public static final int DEFAULT_ROW_BUDGET = 256;
+
+	/**
+	 * Default number of rows between two checkpoints
+	 */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 64;
+
+	private final byte[] content;
+	private final int width;
+	private final long height;
+	private final byte channels;
+	private final byte colorSpace;
+	private final int checkpointInterval;
+
+	// checkpoints.get(k) is the decoder state at the start of row k * checkpointInterval
+	private final List<QOIStreamDecoder.Checkpoint> checkpoints = new ArrayList<>();
+	private final Map<Long, int[]> rows;
+
+	private final QOIStreamDecoder header;
+	// decoder left after the last access, reused by sequential reads
+	private QOIStreamDecoder decoder;
+	private long decoderRow;
+
+	/**
+	 * Create a lazy image with the default row budget and checkpoint interval
+	 *
+	 * @param content (byte[]) - Content of a "Quite Ok Image" file
+	 * @return (LazyImage) - The lazy image
+	 * @throws RuntimeException if the header is corrupted
+	 */
+	public static LazyImage of(byte[] content) {
+		return new LazyImage(content, DEFAULT_ROW_BUDGET, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * Create a lazy image, only the header of the file is read
+	 *
+	 * @param content            (byte[]) - Content of a "Quite Ok Image" file, it is not copied
+	 * @param rowBudget          (int) - Maximal number of decoded rows kept in memory
+	 * @param checkpointInterval (int) - Number of rows between two saved decoder states
+	 * @throws RuntimeException if the header is corrupted or the image is wider than Integer.MAX_VALUE
+	 */
+	public LazyImage(byte[] content, int rowBudget, int checkpointInterval) {
+		assert content != null;
+		assert rowBudget > 0 && checkpointInterval > 0;
+		this.content = content;
+		this.checkpointInterval = checkpointInterval;
+		this.header = open();
+		if (header.width() > Integer.MAX_VALUE) {
+			Helper.fail("Image of width %d cannot be read row by row", header.width());
+		}
+		this.width = (int) header.width();
+		this.height = header.height();
+		this.channels = header.channels();
+		this.colorSpace = header.colorSpace();
+		this.rows = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+				return size() > rowBudget;
+			}
+		};
+		checkpoints.add(header.checkpoint());
+	}
+
+	// ==================================================================================
+	// ================================= HEADER ACCESSORS ===============================
+	// ==================================================================================
+
+	/**
+	 * @return (int) - Width of the image
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * @return (long) - Height of the image
+	 */
+	public long height() {
+		return height;
+	}
+
+	/**
+	 * @return (byte) - Number of channels
+	 */
+	public byte channels() {
+		return channels;
+	}
+
+	/**
+	 * @return (byte) - Color space
+	 */
+	public byte colorSpace() {
+		return colorSpace;
+	}
+
+	// ==================================================================================
+	// ================================= PIXEL ACCESSORS ================================
+	// ==================================================================================
+
+	/**
+	 * Get a row of the image, decoding it if needed
+	 *
+	 * @param y (long) - Index of the row
+	 * @return (int[]) - Copy of the ARGB pixels of the row
+	 * @throws RuntimeException if the file is corrupted
+	 */
+	public int[] row(long y) {
+		return decodedRow(y).clone();
+	}
+
+	/**
+	 * Get a pixel of the image, decoding its row if needed
+	 *
+	 * @param x (int) - Column of the pixel
+	 * @param y (long) - Row of the pixel
+	 * @return (int) - ARGB pixel
+	 * @throws RuntimeException if the file is corrupted
+	 */
+	public int pixel(int x, long y) {
+		assert x >= 0 && x < width;
+		return decodedRow(y)[x];
+	}
+
+	/**
+	 * Decode the whole image
+	 *
+	 * @return (Helper.Image) - The decoded image
+	 * @throws RuntimeException if the file is corrupted or the image is higher than Integer.MAX_VALUE
+	 */
+	public Helper.Image toImage() {
+		if (height > Integer.MAX_VALUE) {
+			Helper.fail("Image of %d x %d pixels does not fit in a Helper.Image", width, height);
+		}
+		int[][] data = new int[(int) height][];
+		for (int y = 0; y < data.length; y++) {
+			data[y] = row(y);
+		}
+		return new Helper.Image(data, channels, colorSpace);
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private synchronized int[] decodedRow(long y) {
+		assert y >= 0 && y < height;
+		int[] row = rows.get(y);
+		if (row != null) {
+			return row;
+		}
+		int nearest = (int) Math.min(y / checkpointInterval, checkpoints.size() - 1);
+		long start = (long) nearest * checkpointInterval;
+		if (decoder == null || decoderRow > y || decoderRow < start) {
+			var checkpoint = checkpoints.get(nearest);
+			decoder = new QOIStreamDecoder(stream(checkpoint.offset()), header, checkpoint);
+			decoderRow = start;
+		}
+		try {
+			while (decoderRow <= y) {
+				if (decoderRow % checkpointInterval == 0 && decoderRow / checkpointInterval == checkpoints.size()) {
+					checkpoints.add(decoder.checkpoint());
+				}
+				row = new int[width];
+				decoder.readRow(row);
+				rows.put(decoderRow++, row);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return row;
+	}
+
+	private QOIStreamDecoder open() {
+		if (content.length < QOISpecification.HEADER_SIZE) {
+			Helper.fail("The input is not a \"Quite Ok Image\" file");
+		}
+		try {
+			// only the header is exposed to the decoder
+			return new QOIStreamDecoder(new ByteArrayInputStream(content, 0, QOISpecification.HEADER_SIZE));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private ByteArrayInputStream stream(long offset) {
+		return new ByteArrayInputStream(content, (int) offset, content.length - (int) offset);
+	}
+
+}
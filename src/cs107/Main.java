@@ -1,5 +1,13 @@
 package cs107;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 
 /**
@@ -60,7 +68,9 @@ public final class Main {
 		// ========== Test ArrayUtils ==========
 		assert testWrap();
 		assert testToInt();
+		assert testToIntOffset();
 		assert testFromInt();
+		assert testFromIntOffset();
 		assert testConcatArrayBytes();
 		assert testConcatBytes();
 		assert testExtract();
@@ -88,12 +98,37 @@ public final class Main {
 
 		// ========== Test QOIDecoder ==========
 		assert testDecodeHeader();
+		assert testDecodeHeaderOffset();
 		assert testDecodeQoiOpRGB();
+		assert testDecodeQoiOpRGBEnd();
 		assert testDecodeQoiOpRGBA();
+		assert testDecodeQoiOpRGBAEnd();
 		assert testDecodeQoiOpDiff();
 		assert testDecodeQoiOpLuma();
 		assert testDecodeQoiOpRun();
 		assert testDecodeData();
+		assert testDecodeDataOffset();
+		assert testDecodeQoiFileOffset();
+
+		// ========== Test QOIDiff ==========
+		assert testQOIDiff();
+
+		// ========== Test streams ==========
+		assert testStreamCheckpoints();
+		assert testSegmentedImageLongIndex();
+		assert testLazyImageRandomRows();
+		assert testIncrementalEncoder();
+
+		// ========== Test statistics ==========
+		assert testCodecStats();
+		assert testLatencyHistogram();
+
+		// ========== Test diff ==========
+		assert testDiffRanges();
+
+		// ========== Test caches ==========
+		assert testImageCache();
+		assert testEncodeCache();
 
 		qoiToPng("references/beach.qoi", "beach.png");
 		qoiToPng("references/qoi_op_rgba.qoi", "qoi_op_rgba.png");
@@ -115,6 +150,42 @@ public final class Main {
 		Helper.write(outputFile, outputFileContent);
 	}
 
+	/**
+	 * Encodes a given file from "PNG" to "QOI", reusing the encoding of
+	 * a pixel-identical image when the cache has one
+	 *
+	 * @param inputFile  (String) - The path of the file to encode
+	 * @param outputFile (String) - The path where to store the generated "Quite Ok Image"
+	 * @param cache      (EncodeCache) - Cache of the previous encodings
+	 */
+	public static void pngToQoi(String inputFile, String outputFile, EncodeCache cache) {
+		var inputImage = Helper.readImage(inputFile);
+		var outputFileContent = cache.qoiFile(inputImage);
+		Helper.write(outputFile, outputFileContent);
+	}
+
+	/**
+	 * Encodes a given file from "PNG" to "QOI", adding the time of each stage to a timer
+	 *
+	 * @param inputFile  (String) - The path of the file to encode
+	 * @param outputFile (String) - The path where to store the generated "Quite Ok Image"
+	 * @param timer      (StageTimer) - Timer of the conversion, a timer given to several
+	 *                   conversions adds up their stages
+	 */
+	public static void pngToQoi(String inputFile, String outputFile, StageTimer timer) {
+		long mark = StageTimer.now(timer);
+		var inputFileContent = Helper.read(inputFile);
+		StageTimer.lap(timer, StageTimer.Stage.READ, mark);
+		var inputImage = Helper.decodeImage(inputFileContent, timer);
+		var outputFileContent = QOIEncoder.qoiFile(inputImage, timer);
+		mark = StageTimer.now(timer);
+		Helper.write(outputFile, outputFileContent);
+		StageTimer.lap(timer, StageTimer.Stage.WRITE, mark);
+		if (timer != null) {
+			timer.count();
+		}
+	}
+
 	// ============================================================================================
 	// ============================== ArrayUtils examples =========================================
 	// ============================================================================================
@@ -134,6 +205,28 @@ public final class Main {
 		Helper.writeImage(outputFile, computedImage);
 	}
 
+	/**
+	 * Encodes a given file from "QOI" to "PNG", adding the time of each stage to a timer
+	 *
+	 * @param inputFile  (String) - The path of the file to decode
+	 * @param outputFile (String) - The path where to store the generated "PNG" Image
+	 * @param timer      (StageTimer) - Timer of the conversion, a timer given to several
+	 *                   conversions adds up their stages
+	 */
+	public static void qoiToPng(String inputFile, String outputFile, StageTimer timer) {
+		long mark = StageTimer.now(timer);
+		var inputFileContent = Helper.read(inputFile);
+		StageTimer.lap(timer, StageTimer.Stage.READ, mark);
+		var computedImage = QOIDecoder.decodeQoiFile(inputFileContent, timer);
+		var outputFileContent = Helper.encodePng(computedImage, timer);
+		mark = StageTimer.now(timer);
+		Helper.write(outputFile, outputFileContent);
+		StageTimer.lap(timer, StageTimer.Stage.WRITE, mark);
+		if (timer != null) {
+			timer.count();
+		}
+	}
+
 	/**
 	 * Computes the ratio
 	 *
@@ -161,6 +254,14 @@ public final class Main {
 		return value == expected;
 	}
 
+	@SuppressWarnings("unused")
+	private static boolean testToIntOffset() {
+		byte[] array = {9, 9, 9, 123, 8, 4, 7, 9};
+		int value = ArrayUtils.toInt(array, 3);
+		int expected = 2064122887;
+		return value == expected;
+	}
+
 	@SuppressWarnings("unused")
 	private static boolean testFromInt() {
 		int value = 12345678;
@@ -169,6 +270,15 @@ public final class Main {
 		return Arrays.equals(array, expected);
 	}
 
+	@SuppressWarnings("unused")
+	private static boolean testFromIntOffset() {
+		int value = 12345678;
+		byte[] array = {9, 9, 9, 9, 9, 9, 9};
+		ArrayUtils.fromInt(value, array, 2);
+		byte[] expected = {9, 9, 0, -68, 97, 78, 9};
+		return Arrays.equals(array, expected);
+	}
+
 	@SuppressWarnings("unused")
 	private static boolean testConcatArrayBytes() {
 		byte[] tab1 = {1, 2, 3};
@@ -294,6 +404,14 @@ public final class Main {
 		return Arrays.equals(decoded, expected);
 	}
 
+	@SuppressWarnings("unused")
+	private static boolean testDecodeHeaderOffset() {
+		byte[] content = {7, 7, 7, 7, 7, 'q', 'o', 'i', 'f', 0, 0, 0, 64, 0, 0, 0, 32, 3, 0, 7, 7};
+		int[] decoded = QOIDecoder.decodeHeader(content, 5);
+		int[] expected = {64, 32, 3, 0};
+		return Arrays.equals(decoded, expected);
+	}
+
 	@SuppressWarnings("unused")
 	private static boolean testDecodeQoiOpRGB() {
 		byte[][] buffer = new byte[2][4]; // buffer = [[0, 0, 0, 0], [0, 0, 0, 0]]
@@ -306,6 +424,24 @@ public final class Main {
 		return Arrays.deepEquals(expected_buffer, buffer) && (returnedValue == 3);
 	}
 
+	@SuppressWarnings("unused")
+	private static boolean testDecodeQoiOpRGBEnd() {
+		byte[][] buffer = new byte[2][4];
+		byte[] input = {0, 0, 0, -2, 100, 0, 55, 8, 0, 0, 0};
+		int returnedValue = QOIDecoder.decodeQoiOpRGB(buffer, input, (byte) 34, 1, 3, 6);
+		byte[][] expected_buffer = {{0, 0, 0, 0}, {-2, 100, 0, 34}};
+		if (!Arrays.deepEquals(expected_buffer, buffer) || returnedValue != 3) {
+			return false;
+		}
+		// the pixel goes past the end of the slice, even though the array is longer
+		try {
+			QOIDecoder.decodeQoiOpRGB(buffer, input, (byte) 34, 0, 3, 5);
+			return false;
+		} catch (AssertionError e) {
+			return true;
+		}
+	}
+
 	@SuppressWarnings("unused")
 	private static boolean testDecodeQoiOpRGBA() {
 		byte[][] buffer = new byte[2][4];
@@ -317,6 +453,23 @@ public final class Main {
 		return Arrays.deepEquals(expected_buffer, buffer) && (returnedValue == 4);
 	}
 
+	@SuppressWarnings("unused")
+	private static boolean testDecodeQoiOpRGBAEnd() {
+		byte[][] buffer = new byte[2][4];
+		byte[] input = {0, 0, 0, -2, 100, 0, 55, 8, 0, 0, 0};
+		int returnedValue = QOIDecoder.decodeQoiOpRGBA(buffer, input, 1, 3, 7);
+		byte[][] expected_buffer = {{0, 0, 0, 0}, {-2, 100, 0, 55}};
+		if (!Arrays.deepEquals(expected_buffer, buffer) || returnedValue != 4) {
+			return false;
+		}
+		try {
+			QOIDecoder.decodeQoiOpRGBA(buffer, input, 0, 3, 6);
+			return false;
+		} catch (AssertionError e) {
+			return true;
+		}
+	}
+
 	@SuppressWarnings("unused")
 	private static boolean testDecodeQoiOpDiff() {
 		byte[] previous_pixel = {23, 117, -4, 7};
@@ -353,4 +506,403 @@ public final class Main {
 		return Arrays.deepEquals(expected, QOIDecoder.decodeData(encoding, 4, 2));
 	}
 
+	@SuppressWarnings("unused")
+	private static boolean testDecodeDataOffset() {
+		byte[] encoding = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+		byte[] embedded = new byte[3 + encoding.length + 4];
+		Arrays.fill(embedded, (byte) 0x55);
+		System.arraycopy(encoding, 0, embedded, 3, encoding.length);
+		byte[][] expected = QOIDecoder.decodeData(encoding, 4, 2);
+		if (!Arrays.deepEquals(expected, QOIDecoder.decodeData(embedded, 3, encoding.length, 4, 2, null))) {
+			return false;
+		}
+		// the slice ends inside the last RGBA operation, the bytes after it are not part of the data
+		try {
+			QOIDecoder.decodeData(embedded, 3, encoding.length - 2, 4, 2, null);
+			return false;
+		} catch (AssertionError e) {
+			return true;
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean testQOIDiff() {
+		var image = Helper.readImage("references/qoi_encode_test.png");
+		byte[] original = QOIEncoder.qoiFile(image);
+		// the same pixels, all encoded with "QOI_OP_RGBA"
+		var rgba = new ByteArrayOutputStream();
+		rgba.writeBytes(QOIEncoder.qoiHeader(image));
+		for (byte[] pixel : ArrayUtils.imageToChannels(image.data())) {
+			rgba.writeBytes(QOIEncoder.qoiOpRGBA(pixel));
+		}
+		rgba.writeBytes(QOISpecification.QOI_EOF);
+		byte[] reencoded = rgba.toByteArray();
+		try {
+			var same = QOIDiff.diff(new ByteArrayInputStream(original), new ByteArrayInputStream(original));
+			var ops = QOIDiff.diff(new ByteArrayInputStream(original), new ByteArrayInputStream(reencoded));
+			// red of the eleventh pixel
+			reencoded[QOISpecification.HEADER_SIZE + 5 * 10 + 1] ^= 1;
+			var pixels = QOIDiff.diff(new ByteArrayInputStream(original), new ByteArrayInputStream(reencoded));
+			return QOIDiff.status(same) == 0 && QOIDiff.status(ops) == 1 && QOIDiff.status(pixels) == 2
+					&& pixels.firstPixel().y() * image.data()[0].length + pixels.firstPixel().x() == 10;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean testDecodeQoiFileOffset() {
+		var image = Helper.readImage("references/qoi_encode_test.png");
+		byte[] file = QOIEncoder.qoiFile(image);
+		byte[] embedded = new byte[7 + file.length + 5];
+		Arrays.fill(embedded, (byte) -1);
+		System.arraycopy(file, 0, embedded, 7, file.length);
+		return QOIDecoder.decodeQoiFile(embedded, 7, file.length).equals(image);
+	}
+
+	// ============================================================================================
+	// ================================ Stream examples ===========================================
+	// ============================================================================================
+
+	@SuppressWarnings("unused")
+	private static boolean testStreamCheckpoints() {
+		var image = Helper.readImage("references/dice.png");
+		int[][] data = image.data();
+		int half = data.length / 2;
+		try {
+			// full encoding, with a checkpoint in the middle of the image
+			var full = new ByteArrayOutputStream();
+			var encoder = new QOIStreamEncoder(full, data[0].length, data.length, image.channels(), image.color_space());
+			QOIStreamEncoder.Checkpoint encoderCheckpoint = null;
+			for (int y = 0; y < data.length; y++) {
+				if (y == half) {
+					encoderCheckpoint = encoder.checkpoint();
+				}
+				encoder.writeRow(data[y]);
+			}
+			encoder.finish();
+			byte[] file = full.toByteArray();
+			if (!Arrays.equals(file, QOIEncoder.qoiFile(image))) {
+				return false;
+			}
+
+			// the encoding resumed from the checkpoint gives the same bytes
+			var resumed = new ByteArrayOutputStream();
+			resumed.write(file, 0, (int) encoderCheckpoint.offset());
+			var second = new QOIStreamEncoder(resumed, encoder, encoderCheckpoint);
+			for (int y = half; y < data.length; y++) {
+				second.writeRow(data[y]);
+			}
+			second.finish();
+			if (!Arrays.equals(resumed.toByteArray(), file)) {
+				return false;
+			}
+
+			// the decoding resumed from the checkpoint gives the same pixels
+			var decoder = new QOIStreamDecoder(new ByteArrayInputStream(file));
+			int[] row = new int[data[0].length];
+			for (int y = 0; y < half; y++) {
+				decoder.readRow(row);
+			}
+			// in the middle of a row, and possibly of a run
+			decoder.readPixels(row, 0, 7);
+			var decoderCheckpoint = decoder.checkpoint();
+			int offset = (int) decoderCheckpoint.offset();
+			var rest = new QOIStreamDecoder(new ByteArrayInputStream(file, offset, file.length - offset), decoder, decoderCheckpoint);
+			rest.readPixels(row, 7, row.length - 7);
+			if (!Arrays.equals(row, data[half])) {
+				return false;
+			}
+			for (int y = half + 1; y < data.length; y++) {
+				rest.readRow(row);
+				if (!Arrays.equals(row, data[y])) {
+					return false;
+				}
+			}
+			rest.finish();
+			return rest.bytesRead() == file.length;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean testSegmentedImageLongIndex() {
+		// more pixels than a segment of 2^24 pixels, the last ones are in the second segment
+		long width = (1 << 16) + 3;
+		long height = 257;
+		var image = new SegmentedImage(width, height, QOISpecification.RGBA, QOISpecification.sRGB);
+		long last = width * height - 1;
+		image.set(width - 1, height - 1, 0x12345678);
+		image.set((1L << 24) - 1, 0x0BADF00D);
+		image.set(1L << 24, 0x7EADBEEF);
+		long boundaryY = (1L << 24) / width;
+		long boundaryX = (1L << 24) % width;
+		return image.pixelCount() == width * height
+				&& image.get(last) == 0x12345678
+				&& image.get(boundaryX, boundaryY) == 0x7EADBEEF
+				&& image.get((1L << 24) - 1) == 0x0BADF00D
+				&& image.get(0) == 0;
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean testLazyImageRandomRows() {
+		byte[] file = Helper.read("references/dice.qoi");
+		int[][] expected = QOIDecoder.decodeQoiFile(file).data();
+		// a budget of two rows forces most accesses to resume from a checkpoint
+		var image = new LazyImage(file, 2, 16);
+		int height = expected.length;
+		// every row once, backwards and forwards in steps co-prime with the height
+		for (int k = 0; k < height; k++) {
+			int y = (int) ((long) k * 97 % height);
+			if (!Arrays.equals(image.row(y), expected[y])) {
+				return false;
+			}
+		}
+		int last = height - 1;
+		return image.pixel(0, last) == expected[last][0]
+				&& image.pixel(image.width() - 1, 0) == expected[0][image.width() - 1]
+				&& image.pixel(5, last / 2) == expected[last / 2][5]
+				&& image.toImage().equals(QOIDecoder.decodeQoiFile(file));
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean testIncrementalEncoder() {
+		var image = Helper.readImage("references/dice.png");
+		int[][] data = Arrays.stream(image.data()).map(int[]::clone).toArray(int[][]::new);
+		var encoder = new IncrementalEncoder(16);
+		if (!Arrays.equals(encoder.qoiFile(image), QOIEncoder.qoiFile(image))) {
+			return false;
+		}
+		// {first dirty row, last dirty row} of each edit : inside a block of rows, across
+		// checkpoints, the first row, the last row, and a range left unchanged
+		int[][] edits = {{100, 110}, {15, 49}, {0, 0}, {data.length - 1, data.length - 1}, {300, 320}};
+		for (int e = 0; e < edits.length; e++) {
+			int first = edits[e][0];
+			int last = edits[e][1];
+			for (int y = first; y <= last && e < edits.length - 1; y++) {
+				for (int x = 0; x < data[y].length; x += 3) {
+					data[y][x] = 0xFF000000 | (x * 31 + y * 7 + e) & 0xFFFFFF;
+				}
+			}
+			var frame = new Helper.Image(data, image.channels(), image.color_space());
+			if (!Arrays.equals(encoder.qoiFile(frame, first, last), QOIEncoder.qoiFile(frame))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// ============================================================================================
+	// ============================== Statistics examples =========================================
+	// ============================================================================================
+
+	@SuppressWarnings("unused")
+	private static boolean testCodecStats() {
+		// one operation of each kind : a run of 2 (the start pixel), diff, luma, index, rgb, rgba
+		int[][] pixels = {{0xFF000000, 0xFF000000, 0xFF010101, 0xFF0B0A0B, 0xFF010101, 0xFF80FF00, 0x10203040}};
+		var encoding = new CodecStats(7, 1);
+		byte[] data = QOIEncoder.encodeData(ArrayUtils.imageToChannels(pixels), encoding);
+		var decoding = new CodecStats(7, 1);
+		QOIDecoder.decodeData(data, 7, 1, decoding);
+		for (var stats : new CodecStats[]{encoding, decoding}) {
+			for (var op : CodecStats.Op.values()) {
+				if (stats.count(op) != 1) {
+					return false;
+				}
+			}
+			if (stats.pixels() != 7 || stats.bytes() != data.length || stats.bytes() != 14
+					|| stats.runLengths()[2] != 1 || stats.rowBytes()[0] != 14) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean testLatencyHistogram() {
+		var histogram = new LatencyHistogram();
+		if (histogram.count() != 0 || histogram.percentile(50) != 0) {
+			return false;
+		}
+		// 1 to 1000 microseconds, the true percentile p is p * 10 microseconds
+		for (long micros = 1; micros <= 1000; micros++) {
+			histogram.record(micros * 1000);
+		}
+		if (histogram.count() != 1000 || histogram.total() != 500_500_000L) {
+			return false;
+		}
+		for (int percentile : new int[]{1, 50, 90, 99, 100}) {
+			long exact = percentile * 10_000L;
+			long reported = histogram.percentile(percentile);
+			if (reported < exact || reported > exact + exact / 8) {
+				return false;
+			}
+		}
+		histogram.reset();
+		return histogram.count() == 0 && histogram.total() == 0 && histogram.percentile(99) == 0;
+	}
+
+	// ============================================================================================
+	// ================================= Diff examples ============================================
+	// ============================================================================================
+
+	@SuppressWarnings("unused")
+	private static boolean testDiffRanges() {
+		Path first = null;
+		Path second = null;
+		try {
+			// 3 MiB, so the files are compared in several chunks of 1 MiB
+			byte[] content = new byte[3 << 20];
+			for (int i = 0; i < content.length; i++) {
+				content[i] = (byte) (i * 31);
+			}
+			first = Files.createTempFile("diff", ".bin");
+			second = Files.createTempFile("diff", ".bin");
+			Files.write(first, content);
+			Files.write(second, content);
+			var out = new ByteArrayOutputStream();
+			if (!Diff.diff(first, second, Diff.MAX_RANGES, new PrintStream(out)).same()) {
+				return false;
+			}
+
+			// a range across the end of the first chunk is reported once, plus a separate range
+			byte[] changed = content.clone();
+			for (int i = (1 << 20) - 4; i < (1 << 20) + 4; i++) {
+				changed[i] = (byte) ~changed[i];
+			}
+			for (int i = (2 << 20) + 100; i < (2 << 20) + 110; i++) {
+				changed[i] = (byte) ~changed[i];
+			}
+			Files.write(second, changed);
+			out.reset();
+			var summary = Diff.diff(first, second, Diff.MAX_RANGES, new PrintStream(out));
+			if (summary.same() || !summary.complete() || summary.ranges() != 2 || summary.bytes() != 18
+					|| !out.toString().contains("[000FFFFC] 8 bytes")) {
+				return false;
+			}
+
+			// the comparison stops at the second range
+			out.reset();
+			summary = Diff.diff(first, second, 1, new PrintStream(out));
+			return !summary.complete() && summary.ranges() == 1 && summary.bytes() == 8;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			deleteQuietly(first);
+			deleteQuietly(second);
+		}
+	}
+
+	// ============================================================================================
+	// ================================ Cache examples ============================================
+	// ============================================================================================
+
+	@SuppressWarnings("unused")
+	private static boolean testImageCache() {
+		Path file = null;
+		try {
+			file = Files.createTempFile("cache", ".qoi");
+			Files.copy(Path.of("references/dice.qoi"), file, StandardCopyOption.REPLACE_EXISTING);
+			var path = file.toString();
+			var dice = QOIDecoder.decodeQoiFile(Helper.read("references/dice.qoi"));
+			var cube = QOIDecoder.decodeQoiFile(Helper.read("references/cube.qoi"));
+			long diceBytes = 4L * dice.data().length * dice.data()[0].length;
+			var cache = new ImageCache(diceBytes);
+
+			// a miss decodes the file, the next lookup is a hit on the same image
+			var first = cache.get(path);
+			var second = cache.get(path);
+			var stats = cache.stats();
+			if (!first.equals(dice) || first != second || stats.hits() != 1 || stats.misses() != 1 || stats.bytes() != diceBytes) {
+				return false;
+			}
+
+			// a rewritten file is a new key, its older version is dropped
+			Files.copy(Path.of("references/cube.qoi"), file, StandardCopyOption.REPLACE_EXISTING);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+			var rewritten = cache.get(path);
+			stats = cache.stats();
+			if (!rewritten.equals(cube) || stats.misses() != 2 || stats.entries() != 1) {
+				return false;
+			}
+
+			// an invalidated file is decoded again
+			cache.invalidate(path);
+			if (cache.stats().entries() != 0 || cache.stats().bytes() != 0) {
+				return false;
+			}
+			cache.get(path);
+			stats = cache.stats();
+			return stats.misses() == 3 && stats.hits() == 1 && stats.entries() == 1 && stats.evictions() == 0;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			deleteQuietly(file);
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean testEncodeCache() {
+		Path directory = null;
+		try {
+			directory = Files.createTempDirectory("encodings");
+			var image = Helper.readImage("references/qoi_encode_test.png");
+			byte[] expected = QOIEncoder.qoiFile(image);
+			var cache = new EncodeCache(1 << 20, directory);
+
+			// a miss encodes the image, the same pixels are then served from memory
+			var first = cache.qoiFile(image);
+			var second = cache.qoiFile(new Helper.Image(image.data().clone(), image.channels(), image.color_space()));
+			var stats = cache.stats();
+			if (!Arrays.equals(first, expected) || first != second || stats.misses() != 1 || stats.memoryHits() != 1) {
+				return false;
+			}
+
+			// another cache finds the encoding on the disk
+			var entry = directory.resolve(EncodeCache.key(image) + ".qoi");
+			var other = new EncodeCache(1 << 20, directory);
+			if (!Arrays.equals(other.qoiFile(image), expected) || other.stats().diskHits() != 1) {
+				return false;
+			}
+
+			// a truncated entry is encoded again and replaced
+			Files.write(entry, Arrays.copyOf(expected, expected.length - 1));
+			var third = new EncodeCache(1 << 20, directory);
+			if (!Arrays.equals(third.qoiFile(image), expected) || third.stats().misses() != 1
+					|| !Arrays.equals(Files.readAllBytes(entry), expected)) {
+				return false;
+			}
+
+			// one different pixel is another image
+			int[][] data = Arrays.stream(image.data()).map(int[]::clone).toArray(int[][]::new);
+			data[0][0] ^= 0x00010000;
+			var changed = new Helper.Image(data, image.channels(), image.color_space());
+			var encoded = cache.qoiFile(changed);
+			return Arrays.equals(encoded, QOIEncoder.qoiFile(changed)) && cache.stats().misses() == 2
+					&& !EncodeCache.key(changed).equals(EncodeCache.key(image));
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (directory != null) {
+				try (var files = Files.list(directory)) {
+					files.forEach(Main::deleteQuietly);
+				} catch (IOException e) {
+					// only temporary files of a test
+				}
+				deleteQuietly(directory);
+			}
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			if (file != null) {
+				Files.deleteIfExists(file);
+			}
+		} catch (IOException e) {
+			// only a temporary file of a test
+		}
+	}
+
 }
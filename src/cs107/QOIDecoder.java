@@ -1,5 +1,7 @@
 package cs107;
 
+import java.util.Arrays;
+
 import static cs107.Helper.Image;
 
 /**
@@ -32,20 +34,36 @@ public final class QOIDecoder {
 	public static int[] decodeHeader(byte[] header) {
 		assert header != null;
 		assert header.length == QOISpecification.HEADER_SIZE;
+		return decodeHeader(header, 0);
+	}
 
-		byte[][] partition = ArrayUtils.partition(header, 4, 4, 4, 1, 1);
+	/**
+	 * Extract useful information from a "Quite Ok Image" header stored in a larger array,
+	 * e.g. a whole file, without copying it
+	 *
+	 * @param content (byte[]) - Array containing a "Quite Ok Image" header
+	 * @param offset  (int) - Index of the first byte of the header
+	 * @return (int[]) - Array such as its content is {width, height, channels, color space}
+	 * @throws AssertionError See handouts section 6.1
+	 */
+	public static int[] decodeHeader(byte[] content, int offset) {
+		assert content != null;
+		assert offset >= 0 && content.length - offset >= QOISpecification.HEADER_SIZE;
+		var event = new CodecEvents.HeaderParse();
+		event.begin();
 
-		assert ArrayUtils.equals(partition[0], QOISpecification.QOI_MAGIC);
+		assert Arrays.equals(content, offset, offset + 4, QOISpecification.QOI_MAGIC, 0, 4);
 
-		int width = ArrayUtils.toInt(partition[1]);
-		int height = ArrayUtils.toInt(partition[2]);
-		int channels = partition[3][0];
+		int width = ArrayUtils.toInt(content, offset + 4);
+		int height = ArrayUtils.toInt(content, offset + 8);
+		int channels = content[offset + 12];
 
 		assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA;
 
-		int colorspace = partition[4][0];
+		int colorspace = content[offset + 13];
 
 		assert colorspace == QOISpecification.ALL || colorspace == QOISpecification.sRGB;
+		event.finish(Integer.toUnsignedLong(width), Integer.toUnsignedLong(height), channels, QOISpecification.HEADER_SIZE, 0);
 		return new int[]{width, height, channels, colorspace};
 	}
 
@@ -65,10 +83,29 @@ public final class QOIDecoder {
 	 * @throws AssertionError See handouts section 6.2.1
 	 */
 	public static int decodeQoiOpRGB(byte[][] buffer, byte[] input, byte alpha, int position, int idx) {
+		assert input != null;
+		return decodeQoiOpRGB(buffer, input, alpha, position, idx, input.length);
+	}
+
+	/**
+	 * Store the pixel in the buffer and return the number of consumed bytes, reading
+	 * the input only before the given end, e.g. the end of the data in a whole file
+	 *
+	 * @param buffer   (byte[][]) - Buffer where to store the pixel
+	 * @param input    (byte[]) - Stream of bytes to read from
+	 * @param alpha    (byte) - Alpha component of the pixel
+	 * @param position (int) - Index in the buffer
+	 * @param idx      (int) - Index in the input
+	 * @param end      (int) - Index in the input after the last byte which can be read
+	 * @return (int) - The number of consumed bytes
+	 * @throws AssertionError See handouts section 6.2.1, the bytes must also be before the end
+	 */
+	public static int decodeQoiOpRGB(byte[][] buffer, byte[] input, byte alpha, int position, int idx, int end) {
 		assert buffer != null;
 		assert input != null;
-		assert idx >= 0 && idx < input.length;
-		assert input.length - idx >= 3;
+		assert end <= input.length;
+		assert idx >= 0 && idx < end;
+		assert end - idx >= 3;
 
 		// 0b11111110(not contain) + r + g + b
 		buffer[position] = new byte[]{input[idx++], input[idx++], input[idx], alpha};
@@ -86,10 +123,28 @@ public final class QOIDecoder {
 	 * @throws AssertionError See handouts section 6.2.2
 	 */
 	public static int decodeQoiOpRGBA(byte[][] buffer, byte[] input, int position, int idx) {
+		assert input != null;
+		return decodeQoiOpRGBA(buffer, input, position, idx, input.length);
+	}
+
+	/**
+	 * Store the pixel in the buffer and return the number of consumed bytes, reading
+	 * the input only before the given end, e.g. the end of the data in a whole file
+	 *
+	 * @param buffer   (byte[][]) - Buffer where to store the pixel
+	 * @param input    (byte[]) - Stream of bytes to read from
+	 * @param position (int) - Index in the buffer
+	 * @param idx      (int) - Index in the input
+	 * @param end      (int) - Index in the input after the last byte which can be read
+	 * @return (int) - The number of consumed bytes
+	 * @throws AssertionError See handouts section 6.2.2, the bytes must also be before the end
+	 */
+	public static int decodeQoiOpRGBA(byte[][] buffer, byte[] input, int position, int idx, int end) {
 		assert buffer != null;
 		assert input != null;
-		assert idx >= 0 && idx < input.length;
-		assert input.length - idx >= 4;
+		assert end <= input.length;
+		assert idx >= 0 && idx < end;
+		assert end - idx >= 4;
 
 		buffer[position] = new byte[]{input[idx++], input[idx++], input[idx++], input[idx]};
 		return 4;
@@ -183,12 +238,75 @@ public final class QOIDecoder {
 	 * @param height (int) - The height of the expected output
 	 * @return (byte[][]) - Decoded "Quite Ok Image"
 	 * @throws AssertionError See handouts section 6.3
+	 * @throws RuntimeException if the image has more than Integer.MAX_VALUE pixels,
+	 *                          such images must be decoded with QOIStreamDecoder
 	 */
 	public static byte[][] decodeData(byte[] data, int width, int height) {
+		return decodeData(data, width, height, null);
+	}
+
+	/**
+	 * Decode the given data using the "Quite Ok Image" Protocol, and record its operations
+	 *
+	 * @param data   (byte[]) - Data to decode
+	 * @param width  (int) - The width of the expected output
+	 * @param height (int) - The height of the expected output
+	 * @param stats  (CodecStats) - Statistics of the operations, null to record nothing
+	 * @return (byte[][]) - Decoded "Quite Ok Image"
+	 * @throws AssertionError See handouts section 6.3
+	 * @throws RuntimeException if the image has more than Integer.MAX_VALUE pixels,
+	 *                          such images must be decoded with QOIStreamDecoder
+	 */
+	public static byte[][] decodeData(byte[] data, int width, int height, CodecStats stats) {
+		assert data != null;
+		return decodeData(data, 0, data.length, width, height, stats);
+	}
+
+	/**
+	 * Decode data stored in a larger array, e.g. a whole file, without copying it
+	 *
+	 * @param data   (byte[]) - Array containing the data to decode
+	 * @param offset (int) - Index of the first byte of the data
+	 * @param length (int) - Number of bytes of the data
+	 * @param width  (int) - The width of the expected output
+	 * @param height (int) - The height of the expected output
+	 * @param stats  (CodecStats) - Statistics of the operations, null to record nothing
+	 * @return (byte[][]) - Decoded "Quite Ok Image"
+	 * @throws AssertionError See handouts section 6.3
+	 * @throws RuntimeException if the image has more than Integer.MAX_VALUE pixels,
+	 *                          such images must be decoded with QOIStreamDecoder
+	 */
+	public static byte[][] decodeData(byte[] data, int offset, int length, int width, int height, CodecStats stats) {
+		var event = new CodecEvents.Decode("decodeData");
+		event.begin();
+		var metrics = CodecMetrics.instance();
+		long start = metrics.enter(CodecMetrics.Operation.DECODE);
+		boolean completed = false;
+		try {
+			byte[][] pixels = decode(data, offset, length, width, height, stats);
+			event.finish(width, height, 0, length, 4L * pixels.length);
+			metrics.complete(CodecMetrics.Operation.DECODE, start, pixels.length, length, 4L * pixels.length);
+			completed = true;
+			return pixels;
+		} finally {
+			metrics.leave(CodecMetrics.Operation.DECODE, completed);
+		}
+	}
 
+	/**
+	 * Decode data stored in a larger array, without recording it in the metrics
+	 * (decodeQoiFile records the whole file instead)
+	 */
+	private static byte[][] decode(byte[] data, int offset, int length, int width, int height, CodecStats stats) {
 		assert data != null;
+		assert offset >= 0 && length >= 0 && data.length - offset >= length;
+		assert stats == null || stats.pixels() == 0;
 		assert width > 0 && height > 0;
-		assert data.length >= width * height;
+		if ((long) width * height > Integer.MAX_VALUE) {
+			Helper.fail("Image of %d x %d pixels is too large, use QOIStreamDecoder", width, height);
+		}
+		// each operation gives at most 62 pixels
+		assert length >= (width * height + 61) / 62;
 
 		byte[][] tab = new byte[width * height][4];
 
@@ -198,28 +316,52 @@ public final class QOIDecoder {
 
 		// step 2
 		int position = 0;
-		for (int idx = 0; idx < data.length; idx++) {
+		int end = offset + length;
+		for (int idx = offset; idx < end; idx++) {
 
 			if (data[idx] == QOISpecification.QOI_OP_RGB_TAG) {
 				// ps. first is tag
-				idx += decodeQoiOpRGB(tab, data, previousPixel[3], position, idx + 1);
+				idx += decodeQoiOpRGB(tab, data, previousPixel[3], position, idx + 1, end);
+				if (stats != null) {
+					stats.op(CodecStats.Op.RGB, 1);
+				}
 			} else if (data[idx] == QOISpecification.QOI_OP_RGBA_TAG) {
-				idx += decodeQoiOpRGBA(tab, data, position, idx + 1);
+				idx += decodeQoiOpRGBA(tab, data, position, idx + 1, end);
+				if (stats != null) {
+					stats.op(CodecStats.Op.RGBA, 1);
+				}
 			} else {
 				byte tag = (byte) (data[idx] & 0xC0);
 				if (tag == QOISpecification.QOI_OP_DIFF_TAG) {
 					tab[position] = decodeQoiOpDiff(previousPixel, data[idx]);
+					if (stats != null) {
+						stats.op(CodecStats.Op.DIFF, 1);
+					}
 				} else if (tag == QOISpecification.QOI_OP_LUMA_TAG) {
+					assert end - idx >= 2;
 					tab[position] = decodeQoiOpLuma(previousPixel, new byte[]{data[idx++], data[idx]});
+					if (stats != null) {
+						stats.op(CodecStats.Op.LUMA, 1);
+					}
 				} else if (tag == QOISpecification.QOI_OP_RUN_TAG) {
 					int c = decodeQoiOpRun(tab, previousPixel, data[idx], position);
 					position += c;
+					if (stats != null) {
+						stats.op(CodecStats.Op.RUN, c + 1);
+					}
 				} else {
 					tab[position] = indexHashTable[data[idx] & 0x3F];
+					if (stats != null) {
+						stats.op(CodecStats.Op.INDEX, 1);
+					}
 				}
 			}
 			previousPixel = tab[position++];
-			indexHashTable[QOISpecification.hash(previousPixel)] = previousPixel;
+			byte index = QOISpecification.hash(previousPixel);
+			if (stats != null) {
+				stats.store(index, !ArrayUtils.equals(indexHashTable[index], previousPixel));
+			}
+			indexHashTable[index] = previousPixel;
 		}
 
 		return tab;
@@ -233,19 +375,77 @@ public final class QOIDecoder {
 	 * @throws AssertionError if content is null
 	 */
 	public static Image decodeQoiFile(byte[] content) {
-		assert content != null;
-		assert ArrayUtils.equals(ArrayUtils.extract(content, content.length - QOISpecification.QOI_EOF.length, QOISpecification.QOI_EOF.length), QOISpecification.QOI_EOF);
+		return decodeQoiFile(content, null);
+	}
 
-		byte[] header = ArrayUtils.extract(content, 0, QOISpecification.HEADER_SIZE);
-		int[] headers = decodeHeader(header);
+	/**
+	 * Decode a file using the "Quite Ok Image" Protocol, timing the decoding
+	 * and the conversion of the channels to pixels
+	 *
+	 * @param content (byte[]) - Content of the file to decode
+	 * @param timer   (StageTimer) - Timer of the conversion, may be null
+	 * @return (Image) - Decoded image
+	 * @throws AssertionError if content is null
+	 */
+	public static Image decodeQoiFile(byte[] content, StageTimer timer) {
+		assert content != null;
+		return decodeQoiFile(content, 0, content.length, timer);
+	}
 
-		byte[][] bytes = decodeData(
-				ArrayUtils.extract(content, QOISpecification.HEADER_SIZE, content.length - QOISpecification.HEADER_SIZE - QOISpecification.QOI_EOF.length),
-				headers[0], headers[1]
-		);
+	/**
+	 * Decode a file stored in a larger array, e.g. a network buffer, without copying it
+	 *
+	 * @param content (byte[]) - Array containing the file to decode
+	 * @param offset  (int) - Index of the first byte of the file
+	 * @param length  (int) - Number of bytes of the file
+	 * @return (Image) - Decoded image
+	 * @throws AssertionError if content is null or the file is outside the array
+	 */
+	public static Image decodeQoiFile(byte[] content, int offset, int length) {
+		return decodeQoiFile(content, offset, length, null);
+	}
 
-		int[][] channelsToImage = ArrayUtils.channelsToImage(bytes, headers[1], headers[0]);
-		return new Image(channelsToImage, (byte) headers[2], (byte) headers[3]);
+	/**
+	 * Decode a file stored in a larger array without copying it, timing the decoding
+	 * and the conversion of the channels to pixels
+	 *
+	 * @param content (byte[]) - Array containing the file to decode
+	 * @param offset  (int) - Index of the first byte of the file
+	 * @param length  (int) - Number of bytes of the file
+	 * @param timer   (StageTimer) - Timer of the conversion, may be null
+	 * @return (Image) - Decoded image
+	 * @throws AssertionError if content is null or the file is outside the array
+	 */
+	public static Image decodeQoiFile(byte[] content, int offset, int length, StageTimer timer) {
+		assert content != null;
+		assert offset >= 0 && length >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+		assert content.length - offset >= length;
+		int end = offset + length;
+		assert Arrays.equals(content, end - QOISpecification.QOI_EOF.length, end, QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length);
+		var event = new CodecEvents.Decode("decodeQoiFile");
+		event.begin();
+		var metrics = CodecMetrics.instance();
+		long start = metrics.enter(CodecMetrics.Operation.DECODE);
+		boolean completed = false;
+		try {
+			long mark = StageTimer.now(timer);
+			int[] headers = decodeHeader(content, offset);
+
+			// the data is decoded in place, between the header and the "End Of File" marker
+			byte[][] bytes = decode(content, offset + QOISpecification.HEADER_SIZE,
+					length - QOISpecification.HEADER_SIZE - QOISpecification.QOI_EOF.length,
+					headers[0], headers[1], null);
+
+			mark = StageTimer.lap(timer, StageTimer.Stage.CODEC, mark);
+			int[][] channelsToImage = ArrayUtils.channelsToImage(bytes, headers[1], headers[0]);
+			StageTimer.lap(timer, StageTimer.Stage.PIXELS, mark);
+			event.finish(headers[0], headers[1], headers[2], length, 4L * bytes.length);
+			metrics.complete(CodecMetrics.Operation.DECODE, start, bytes.length, length, 4L * bytes.length);
+			completed = true;
+			return new Image(channelsToImage, (byte) headers[2], (byte) headers[3]);
+		} finally {
+			metrics.leave(CodecMetrics.Operation.DECODE, completed);
+		}
 	}
 
 }
@@ -0,0 +1,236 @@
+package cs107;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Comparison of two "Quite Ok Image" files at the level of their operations and of their pixels.
+ * A byte diff is of little help once two encoders disagree, since every operation after the
+ * first different one is shifted. Both operation streams are instead walked side by side
+ * while tracking the pixel position, which gives :
+ * <ul>
+ *     <li>the first pixel where the operations differ, with both operations</li>
+ *     <li>the first pixel where the decoded images differ, if they do</li>
+ * </ul>
+ * The files are streamed with QOIOpReader, neither image is built in memory.
+ * <pre>
+ * java -cp out cs107.QOIDiff FILE_1 FILE_2
+ * </pre>
+ * The exit status is 0 when the operations are the same, 1 when only the operations differ,
+ * 2 when the pixels differ too, and 3 on a usage error or when a file cannot be read or is corrupted.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class QOIDiff {
+
+	/**
+	 * A pixel of both images, with the operations giving it
+	 *
+	 * @param x       (long) - Column of the pixel
+	 * @param y       (long) - Row of the pixel
+	 * @param offset1 (long) - Offset of the operation in the first file
+	 * @param op1     (String) - Operation of the first file
+	 * @param pixel1  (int) - ARGB pixel of the first image
+	 * @param offset2 (long) - Offset of the operation in the second file
+	 * @param op2     (String) - Operation of the second file
+	 * @param pixel2  (int) - ARGB pixel of the second image
+	 */
+	public record Position(long x, long y, long offset1, String op1, int pixel1, long offset2, String op2, int pixel2) {
+
+		/**
+		 * @return (boolean) - Whether both images have the same pixel here
+		 */
+		public boolean samePixel() {
+			return pixel1 == pixel2;
+		}
+	}
+
+	/**
+	 * Outcome of a comparison
+	 *
+	 * @param header     (String) - Description of the difference of the headers, null if they are the same
+	 * @param compared   (boolean) - Whether the images have the same size, so that their pixels were compared
+	 * @param firstOp    (Position) - First pixel given by different operations, null if the operations are the same
+	 * @param firstPixel (Position) - First pixel different in the two images, null if the pixels are the same
+	 */
+	public record Result(String header, boolean compared, Position firstOp, Position firstPixel) {
+
+		/**
+		 * @return (boolean) - Whether both files have the same header and the same operations
+		 */
+		public boolean sameOps() {
+			return header == null && firstOp == null;
+		}
+
+		/**
+		 * @return (boolean) - Whether both files decode to the same image
+		 */
+		public boolean samePixels() {
+			return compared && firstPixel == null;
+		}
+	}
+
+	/** Exit status of a usage error, or of a file which cannot be read or is corrupted */
+	public static final int ERROR = 3;
+
+	// Hide default constructor
+	private QOIDiff() {
+	}
+
+	/**
+	 * Compare two files from the command line
+	 *
+	 * @param args (String[]) - Paths of the two files
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("usage : java cs107.QOIDiff FILE_1 FILE_2");
+			System.exit(ERROR);
+		}
+		Result result;
+		try (var input1 = new BufferedInputStream(Files.newInputStream(Path.of(args[0])));
+		     var input2 = new BufferedInputStream(Files.newInputStream(Path.of(args[1])))) {
+			result = diff(input1, input2);
+		} catch (IOException e) {
+			System.err.println("Cannot read the files : " + e);
+			System.exit(ERROR);
+			return;
+		} catch (RuntimeException e) {
+			System.err.println("Corrupted file : " + e.getMessage());
+			System.exit(ERROR);
+			return;
+		}
+		print(result, System.out);
+		System.exit(status(result));
+	}
+
+	// ==================================================================================
+	// ==================================== DIFF API ====================================
+	// ==================================================================================
+
+	/**
+	 * Compare two "Quite Ok Image" streams. The comparison stops as soon as both the first
+	 * different operation and the first different pixel are known
+	 *
+	 * @param input1 (InputStream) - First file
+	 * @param input2 (InputStream) - Second file
+	 * @return (Result) - Outcome of the comparison
+	 * @throws IOException if one of the streams cannot be read
+	 * @throws RuntimeException if one of the files is corrupted
+	 */
+	public static Result diff(InputStream input1, InputStream input2) throws IOException {
+		assert input1 != null && input2 != null;
+		var reader1 = new QOIOpReader(input1);
+		var reader2 = new QOIOpReader(input2);
+		String header = header(reader1, reader2);
+		if (reader1.width() != reader2.width() || reader1.height() != reader2.height()) {
+			// the pixels cannot be matched
+			return new Result(header, false, null, null);
+		}
+
+		Position firstOp = null;
+		Position firstPixel = null;
+		// pixel reached in both images, each current operation covers it
+		long pixel = 0;
+		long end1 = 0;
+		long end2 = 0;
+		while (pixel < reader1.pixelCount() && (firstOp == null || firstPixel == null)) {
+			boolean start1 = pixel == end1;
+			boolean start2 = pixel == end2;
+			if (start1) {
+				reader1.next();
+				end1 = reader1.position() + reader1.pixels();
+			}
+			if (start2) {
+				reader2.next();
+				end2 = reader2.position() + reader2.pixels();
+			}
+			// until the first difference both streams start their operations together
+			if (firstOp == null && !sameOp(reader1, reader2)) {
+				firstOp = position(pixel, reader1, reader2);
+			}
+			if (firstPixel == null && reader1.pixel() != reader2.pixel()) {
+				firstPixel = position(pixel, reader1, reader2);
+			}
+			pixel = Math.min(end1, end2);
+		}
+		return new Result(header, true, firstOp, firstPixel);
+	}
+
+	/**
+	 * @param result (Result) - Outcome of a comparison
+	 * @return (int) - Exit status of the comparison : 0 when the operations are the same,
+	 * 1 when only the operations differ and 2 when the pixels differ too
+	 */
+	public static int status(Result result) {
+		return result.sameOps() ? 0 : result.samePixels() ? 1 : 2;
+	}
+
+	/**
+	 * Print the outcome of a comparison
+	 *
+	 * @param result (Result) - Outcome of the comparison
+	 * @param out    (PrintStream) - Where to print
+	 */
+	public static void print(Result result, PrintStream out) {
+		out.println("== Header : " + (result.header() == null ? "same" : result.header()));
+		if (!result.compared()) {
+			out.println("== Operations and pixels : not compared, the sizes differ");
+			return;
+		}
+		var op = result.firstOp();
+		if (op == null) {
+			out.println("== Operations : same");
+		} else {
+			out.printf("== First different operation at pixel (%d, %d) : [%08X] %s ~ [%08X] %s, pixel %08X ~ %08X (%s)%n",
+					op.x(), op.y(), op.offset1(), op.op1(), op.offset2(), op.op2(), op.pixel1(), op.pixel2(),
+					op.samePixel() ? "same" : "different");
+		}
+		var pixel = result.firstPixel();
+		if (pixel == null) {
+			out.println("== Pixels : same");
+		} else {
+			out.printf("== First different pixel at (%d, %d) : [%08X] %s ~ [%08X] %s, pixel %08X ~ %08X%n",
+					pixel.x(), pixel.y(), pixel.offset1(), pixel.op1(), pixel.offset2(), pixel.op2(),
+					pixel.pixel1(), pixel.pixel2());
+		}
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private static String header(QOIOpReader reader1, QOIOpReader reader2) {
+		if (reader1.width() == reader2.width() && reader1.height() == reader2.height()
+				&& reader1.channels() == reader2.channels() && reader1.colorSpace() == reader2.colorSpace()) {
+			return null;
+		}
+		return String.format("%d x %d, %d channels, color space %d ~ %d x %d, %d channels, color space %d",
+				reader1.width(), reader1.height(), reader1.channels(), reader1.colorSpace(),
+				reader2.width(), reader2.height(), reader2.channels(), reader2.colorSpace());
+	}
+
+	private static boolean sameOp(QOIOpReader reader1, QOIOpReader reader2) {
+		if (reader1.position() != reader2.position() || reader1.op() != reader2.op()) {
+			return false;
+		}
+		for (int i = 0; i < reader1.op().size(); i++) {
+			if (reader1.byteAt(i) != reader2.byteAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Position position(long pixel, QOIOpReader reader1, QOIOpReader reader2) {
+		return new Position(pixel % reader1.width(), pixel / reader1.width(),
+				reader1.offset(), reader1.describe(), reader1.pixel(),
+				reader2.offset(), reader2.describe(), reader2.pixel());
+	}
+
+}
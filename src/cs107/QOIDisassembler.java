@@ -0,0 +1,331 @@
+package cs107;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Streaming disassembler of "Quite Ok Image" files.
+ * Every operation is written with its offset in the file, the index of its first pixel,
+ * its operands and the pixel it gives, e.g.
+ * <pre>
+ * 0000000E           0 RGB 215 215 215 -> FFD7D7D7
+ * 00000012           1 RUN 3 -> FFD7D7D7
+ * </pre>
+ * or as a binary trace of fixed size records (see trace()). The file is read with
+ * QOIOpReader and the lines are formatted in a reused buffer, so the memory used does not
+ * depend on the size of the file. The output can be limited to a range of offsets and to a
+ * range of pixels, the reading then stops after the end of the ranges.
+ * <pre>
+ * java -cp out cs107.QOIDisassembler [--offsets FROM:TO] [--pixels FROM:TO] [--binary] [-o OUTPUT] INPUT
+ * </pre>
+ * The bounds are byte offsets and pixel indexes (decimal, or hexadecimal with '0x'), FROM is
+ * included and TO excluded, and either of them can be left out.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class QOIDisassembler {
+
+	/**
+	 * Operations to write
+	 *
+	 * @param fromOffset (long) - First offset of an operation written
+	 * @param toOffset   (long) - Offset from which no operation is written
+	 * @param fromPixel  (long) - First pixel whose operation is written
+	 * @param toPixel    (long) - Pixel from which no operation is written
+	 */
+	public record Filter(long fromOffset, long toOffset, long fromPixel, long toPixel) {
+
+		/** Filter keeping all the operations */
+		public static final Filter ALL = new Filter(0, Long.MAX_VALUE, 0, Long.MAX_VALUE);
+
+		/**
+		 * @param reader (QOIOpReader) - Reader on an operation
+		 * @return (boolean) - Whether the operation is written
+		 */
+		boolean accepts(QOIOpReader reader) {
+			return fromOffset <= reader.offset() && reader.offset() < toOffset
+					&& reader.position() + reader.pixels() > fromPixel && reader.position() < toPixel;
+		}
+
+		/**
+		 * @param reader (QOIOpReader) - Reader on an operation
+		 * @return (boolean) - Whether no later operation can be written
+		 */
+		boolean after(QOIOpReader reader) {
+			return reader.offset() >= toOffset || reader.position() >= toPixel;
+		}
+	}
+
+	/** Size in bytes of a record of the binary trace */
+	public static final int RECORD_SIZE = 27;
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	// Hide default constructor
+	private QOIDisassembler() {
+	}
+
+	/**
+	 * Disassemble a file from the command line
+	 *
+	 * @param args (String[]) - Options then the path of the file
+	 * @throws IOException if the file cannot be read or the output cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		long[] offsets = {0, Long.MAX_VALUE};
+		long[] pixels = {0, Long.MAX_VALUE};
+		boolean binary = false;
+		boolean valid = true;
+		String output = null;
+		String input = null;
+		for (int i = 0; i < args.length && valid; i++) {
+			switch (args[i]) {
+				case "--offsets" -> valid = ++i < args.length && range(args[i], offsets);
+				case "--pixels" -> valid = ++i < args.length && range(args[i], pixels);
+				case "--binary" -> binary = true;
+				case "-o" -> {
+					valid = ++i < args.length;
+					output = valid ? args[i] : null;
+				}
+				default -> input = args[i];
+			}
+		}
+		if (!valid || input == null) {
+			System.err.println("usage : java cs107.QOIDisassembler [--offsets FROM:TO] [--pixels FROM:TO] [--binary] [-o OUTPUT] INPUT");
+			System.exit(2);
+		}
+		var filter = new Filter(offsets[0], offsets[1], pixels[0], pixels[1]);
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(Path.of(input)));
+		     OutputStream out = output == null ? new BufferedOutputStream(System.out, 1 << 16)
+				     : new BufferedOutputStream(Files.newOutputStream(Path.of(output)), 1 << 16)) {
+			if (binary) {
+				var data = new DataOutputStream(out);
+				trace(in, data, filter);
+				data.flush();
+			} else {
+				var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 1 << 16);
+				disassemble(in, writer, filter, Files.size(Path.of(input)));
+				writer.flush();
+			}
+			out.flush();
+		}
+	}
+
+	// ==================================================================================
+	// ================================ DISASSEMBLER API ================================
+	// ==================================================================================
+
+	/**
+	 * Write the operations of a file of unknown size as text, see disassemble(InputStream, Writer, Filter, long)
+	 *
+	 * @param input  (InputStream) - "Quite Ok Image" file
+	 * @param out    (Writer) - Where to write the lines, it is not flushed
+	 * @param filter (Filter) - Operations to write
+	 * @return (long) - Number of operations written
+	 * @throws IOException if the file cannot be read or the output cannot be written
+	 * @throws RuntimeException if the file is corrupted
+	 */
+	public static long disassemble(InputStream input, Writer out, Filter filter) throws IOException {
+		return disassemble(input, out, filter, -1);
+	}
+
+	/**
+	 * Write the operations of a file as text, one line per operation after a line
+	 * describing the header. The offsets have 8 hexadecimal digits, more for the files
+	 * larger than 4 GiB, and 16 when the size is unknown
+	 *
+	 * @param input  (InputStream) - "Quite Ok Image" file
+	 * @param out    (Writer) - Where to write the lines, it is not flushed
+	 * @param filter (Filter) - Operations to write
+	 * @param size   (long) - Size of the file in bytes, -1 if it is unknown
+	 * @return (long) - Number of operations written
+	 * @throws IOException if the file cannot be read or the output cannot be written
+	 * @throws RuntimeException if the file is corrupted
+	 */
+	public static long disassemble(InputStream input, Writer out, Filter filter, long size) throws IOException {
+		assert input != null && out != null && filter != null;
+		var reader = new QOIOpReader(input);
+		out.write(String.format("# %d x %d, %d channels, color space %d\n",
+				reader.width(), reader.height(), reader.channels(), reader.colorSpace()));
+		int digits = size < 0 ? 16 : Math.max(8, (67 - Long.numberOfLeadingZeros(size)) / 4);
+		var line = new char[96 + digits];
+		long written = 0;
+		while (reader.next() && !filter.after(reader)) {
+			if (filter.accepts(reader)) {
+				out.write(line, 0, format(reader, line, digits));
+				written++;
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Write the operations of a file as a binary trace. Each record has RECORD_SIZE bytes,
+	 * in big-endian order : the offset of the operation (long), the index of its first pixel
+	 * (long), the ARGB pixel it gives (int), its kind (byte, ordinal of CodecStats.Op), its number
+	 * of pixels (byte) and its bytes (5 bytes, padded with 0)
+	 *
+	 * @param input  (InputStream) - "Quite Ok Image" file
+	 * @param out    (DataOutput) - Where to write the records
+	 * @param filter (Filter) - Operations to write
+	 * @return (long) - Number of records written
+	 * @throws IOException if the file cannot be read or the output cannot be written
+	 * @throws RuntimeException if the file is corrupted
+	 */
+	public static long trace(InputStream input, DataOutput out, Filter filter) throws IOException {
+		assert input != null && out != null && filter != null;
+		var reader = new QOIOpReader(input);
+		var record = new byte[RECORD_SIZE];
+		long written = 0;
+		while (reader.next() && !filter.after(reader)) {
+			if (filter.accepts(reader)) {
+				put(record, 0, reader.offset(), 8);
+				put(record, 8, reader.position(), 8);
+				put(record, 16, reader.pixel(), 4);
+				record[20] = (byte) reader.op().ordinal();
+				record[21] = (byte) reader.pixels();
+				for (int i = 0; i < 5; i++) {
+					record[22 + i] = i < reader.op().size() ? reader.byteAt(i) : 0;
+				}
+				out.write(record);
+				written++;
+			}
+		}
+		return written;
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	/**
+	 * Format the current operation of a reader, with an offset of the given number of digits
+	 *
+	 * @return (int) - Number of characters of the line, end of line included
+	 */
+	private static int format(QOIOpReader reader, char[] line, int digits) {
+		int n = hex(line, 0, reader.offset(), digits);
+		line[n++] = ' ';
+		n = decimal(line, n, reader.position(), 11);
+		line[n++] = ' ';
+		var name = reader.op().name();
+		name.getChars(0, name.length(), line, n);
+		n += name.length();
+		byte tag = reader.byteAt(0);
+		switch (reader.op()) {
+			case RUN -> n = operand(line, n, reader.pixels(), false);
+			case INDEX -> n = operand(line, n, tag & 0x3F, false);
+			case DIFF -> {
+				n = operand(line, n, (tag >> 4 & 0x3) - 2, true);
+				n = operand(line, n, (tag >> 2 & 0x3) - 2, true);
+				n = operand(line, n, (tag & 0x3) - 2, true);
+			}
+			case LUMA -> {
+				n = operand(line, n, (tag & 0x3F) - 32, true);
+				n = operand(line, n, (reader.byteAt(1) >> 4 & 0xF) - 8, true);
+				n = operand(line, n, (reader.byteAt(1) & 0xF) - 8, true);
+			}
+			default -> {
+				for (int i = 1; i < reader.op().size(); i++) {
+					n = operand(line, n, reader.byteAt(i) & 0xFF, false);
+				}
+			}
+		}
+		line[n++] = ' ';
+		line[n++] = '-';
+		line[n++] = '>';
+		line[n++] = ' ';
+		n = hex(line, n, Integer.toUnsignedLong(reader.pixel()), 8);
+		line[n++] = '\n';
+		return n;
+	}
+
+	private static int operand(char[] line, int n, int value, boolean signed) {
+		line[n++] = ' ';
+		if (value < 0) {
+			line[n++] = '-';
+			value = -value;
+		} else if (signed) {
+			line[n++] = '+';
+		}
+		return decimal(line, n, value, 0);
+	}
+
+	/**
+	 * Write a number in hexadecimal, with exactly the given number of digits
+	 */
+	private static int hex(char[] line, int n, long value, int digits) {
+		for (int i = digits - 1; i >= 0; i--) {
+			line[n + i] = HEX[(int) (value & 0xF)];
+			value >>>= 4;
+		}
+		return n + digits;
+	}
+
+	/**
+	 * Write a positive number in decimal, padded on the left with spaces to the given width
+	 */
+	private static int decimal(char[] line, int n, long value, int width) {
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		for (int i = digits; i < width; i++) {
+			line[n++] = ' ';
+		}
+		for (int i = digits - 1; i >= 0; i--) {
+			line[n + i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return n + digits;
+	}
+
+	/**
+	 * Write the lowest bytes of a number in big-endian order
+	 */
+	private static void put(byte[] record, int offset, long value, int size) {
+		for (int i = size - 1; i >= 0; i--) {
+			record[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	/**
+	 * Parse a range FROM:TO of the command line, a bound left out keeps its value
+	 *
+	 * @return (boolean) - false if the range is malformed
+	 */
+	private static boolean range(String text, long[] bounds) {
+		var range = text.split(":", -1);
+		if (range.length > 2) {
+			return false;
+		}
+		try {
+			for (int i = 0; i < range.length; i++) {
+				if (!range[i].isEmpty()) {
+					bounds[i] = parse(range[i]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return bounds[0] >= 0 && bounds[1] >= 0;
+	}
+
+	private static long parse(String value) {
+		return value.startsWith("0x") ? Long.parseLong(value.substring(2), 16) : Long.parseLong(value);
+	}
+
+}
@@ -1,5 +1,7 @@
 package cs107;
 
+import java.io.ByteArrayOutputStream;
+
 /**
  * "Quite Ok Image" Encoder
  *
@@ -33,17 +35,18 @@ public final class QOIEncoder {
 		assert image.channels() == QOISpecification.RGB || image.channels() == QOISpecification.RGBA;
 		assert image.color_space() == QOISpecification.sRGB || image.color_space() == QOISpecification.ALL;
 
-		return ArrayUtils.concat(
-				QOISpecification.QOI_MAGIC,
-				// width
-				ArrayUtils.fromInt(image.data()[0].length),
-				// height
-				ArrayUtils.fromInt(image.data().length),
-				// channels
-				ArrayUtils.wrap(image.channels()),
-				// colorspace
-				ArrayUtils.wrap(image.color_space())
-		);
+		// written in place, without intermediate arrays
+		byte[] header = new byte[QOISpecification.HEADER_SIZE];
+		System.arraycopy(QOISpecification.QOI_MAGIC, 0, header, 0, QOISpecification.QOI_MAGIC.length);
+		// width
+		ArrayUtils.fromInt(image.data()[0].length, header, 4);
+		// height
+		ArrayUtils.fromInt(image.data().length, header, 8);
+		// channels
+		header[12] = image.channels();
+		// colorspace
+		header[13] = image.color_space();
+		return header;
 	}
 
 	// ==================================================================================
@@ -175,37 +178,83 @@ public final class QOIEncoder {
 	 * @return (byte[]) - "Quite Ok Image" representation of the image
 	 */
 	public static byte[] encodeData(byte[][] image) {
+		return encodeData(image, null);
+	}
+
+	/**
+	 * Encode the given image using the "Quite Ok Image" Protocol, and record its operations
+	 *
+	 * @param image (byte[][]) - Formatted image to encode
+	 * @param stats (CodecStats) - Statistics of the operations, null to record nothing
+	 * @return (byte[]) - "Quite Ok Image" representation of the image
+	 */
+	public static byte[] encodeData(byte[][] image, CodecStats stats) {
+		assert image != null;
+		var event = new CodecEvents.Encode("encodeData");
+		event.begin();
+		var metrics = CodecMetrics.instance();
+		long start = metrics.enter(CodecMetrics.Operation.ENCODE);
+		boolean completed = false;
+		try {
+			byte[] data = encode(image, stats);
+			event.finish(0, 0, 0, 4L * image.length, data.length);
+			metrics.complete(CodecMetrics.Operation.ENCODE, start, image.length, 4L * image.length, data.length);
+			completed = true;
+			return data;
+		} finally {
+			metrics.leave(CodecMetrics.Operation.ENCODE, completed);
+		}
+	}
+
+	/**
+	 * Encode the given image, without recording it in the metrics
+	 * (qoiFile records the whole file instead)
+	 */
+	private static byte[] encode(byte[][] image, CodecStats stats) {
+		assert stats == null || stats.pixels() == 0;
 		// step 1 initialization
 		byte[] previousPixel = QOISpecification.START_PIXEL;
 		byte[][] indexHashTable = new byte[64][4];
 		byte counter = 0;
 
 		// step 2 pixel process
-		byte[] result = new byte[0];
+		var result = new ByteArrayOutputStream();
 		for (int i = 0; i < image.length; i++) {
 			byte[] pixel = image[i];
 			// 1.
 			if (ArrayUtils.equals(pixel, previousPixel)) {
 				counter++;
 				if (counter >= 62 || i == image.length - 1) {
-					result = ArrayUtils.concat(result, qoiOpRun(counter));
+					result.writeBytes(qoiOpRun(counter));
+					if (stats != null) {
+						stats.op(CodecStats.Op.RUN, counter);
+					}
 					counter = 0;
 				}
 				previousPixel = pixel;
 				continue;
 			}
 			if (counter != 0) {
-				result = ArrayUtils.concat(result, qoiOpRun(counter));
+				result.writeBytes(qoiOpRun(counter));
+				if (stats != null) {
+					stats.op(CodecStats.Op.RUN, counter);
+				}
 				counter = 0;
 			}
 			// 2.
 			byte index = QOISpecification.hash(pixel);
 			if (ArrayUtils.equals(indexHashTable[index], pixel)) {
-				result = ArrayUtils.concat(result, qoiOpIndex(index));
+				result.writeBytes(qoiOpIndex(index));
+				if (stats != null) {
+					stats.op(CodecStats.Op.INDEX, 1);
+				}
 				previousPixel = pixel;
 				continue;
 			}
 			indexHashTable[index] = pixel;
+			if (stats != null) {
+				stats.store(index, true);
+			}
 			// 3.
 			if (pixel[3] == previousPixel[3]) {
 				byte dr = (byte) (pixel[0] - previousPixel[0]);
@@ -215,22 +264,34 @@ public final class QOIEncoder {
 				byte db_dg = (byte) (db - dg);
 				if (smallestDiff(dr) && smallestDiff(dg) && smallestDiff(db)) {
 					// 3
-					result = ArrayUtils.concat(result, qoiOpDiff(new byte[]{dr, dg, db}));
+					result.writeBytes(qoiOpDiff(new byte[]{dr, dg, db}));
+					if (stats != null) {
+						stats.op(CodecStats.Op.DIFF, 1);
+					}
 				} else if (smallDiff(dg) && smallerDiff(dr_dg) && smallerDiff(db_dg)) {
 					// 4
-					result = ArrayUtils.concat(result, qoiOpLuma(new byte[]{dr, dg, db}));
+					result.writeBytes(qoiOpLuma(new byte[]{dr, dg, db}));
+					if (stats != null) {
+						stats.op(CodecStats.Op.LUMA, 1);
+					}
 				} else {
 					// 5
-					result = ArrayUtils.concat(result, qoiOpRGB(pixel));
+					result.writeBytes(qoiOpRGB(pixel));
+					if (stats != null) {
+						stats.op(CodecStats.Op.RGB, 1);
+					}
 				}
 			} else {
 				// 6
-				result = ArrayUtils.concat(result, qoiOpRGBA(pixel));
+				result.writeBytes(qoiOpRGBA(pixel));
+				if (stats != null) {
+					stats.op(CodecStats.Op.RGBA, 1);
+				}
 			}
 			previousPixel = pixel;
 		}
 
-		return result;
+		return result.toByteArray();
 	}
 
 	private static boolean smallDiff(int i) {
@@ -255,11 +316,42 @@ public final class QOIEncoder {
 	 * TO CREATE THE FILE, YOU'LL NEED TO CALL Helper::write
 	 */
 	public static byte[] qoiFile(Helper.Image image) {
+		return qoiFile(image, null);
+	}
 
-		byte[] header = qoiHeader(image);
-		byte[] content = encodeData(ArrayUtils.imageToChannels(image.data()));
-
-		return ArrayUtils.concat(header, content, QOISpecification.QOI_EOF);
+	/**
+	 * Creates the representation in memory of the "Quite Ok Image" file, timing
+	 * the conversion of the pixels to channels and the encoding
+	 *
+	 * @param image (Helper.Image) - Image to encode
+	 * @param timer (StageTimer) - Timer of the conversion, may be null
+	 * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+	 * @throws AssertionError if the image is null
+	 */
+	public static byte[] qoiFile(Helper.Image image, StageTimer timer) {
+		var event = new CodecEvents.Encode("qoiFile");
+		event.begin();
+		var metrics = CodecMetrics.instance();
+		long start = metrics.enter(CodecMetrics.Operation.ENCODE);
+		boolean completed = false;
+		try {
+			long mark = StageTimer.now(timer);
+			byte[][] channels = ArrayUtils.imageToChannels(image.data());
+			mark = StageTimer.lap(timer, StageTimer.Stage.PIXELS, mark);
+			byte[] header = qoiHeader(image);
+			byte[] content = encode(channels, null);
+
+			byte[] file = ArrayUtils.concat(header, content, QOISpecification.QOI_EOF);
+			StageTimer.lap(timer, StageTimer.Stage.CODEC, mark);
+			int height = image.data().length;
+			int width = image.data()[0].length;
+			event.finish(width, height, image.channels(), 4L * width * height, file.length);
+			metrics.complete(CodecMetrics.Operation.ENCODE, start, (long) width * height, 4L * width * height, file.length);
+			completed = true;
+			return file;
+		} finally {
+			metrics.leave(CodecMetrics.Operation.ENCODE, completed);
+		}
 	}
 
 }
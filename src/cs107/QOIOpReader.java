@@ -0,0 +1,354 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader of the operations of a "Quite Ok Image" file.
+ * Each call to next() reads one operation and tells where it is in the file, which pixels
+ * it covers and the pixel it gives. Only the decoder state (previous pixel and index table)
+ * stays resident, the image itself is never built, so files of any size can be walked.
+ * QOIStreamDecoder decodes the pixels with the same reader.
+ * <pre>
+ * try (var reader = new QOIOpReader(input)) {
+ *     while (reader.next()) {
+ *         System.out.println(reader.offset() + " " + reader.describe());
+ *     }
+ *     reader.finish();
+ * }
+ * </pre>
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class QOIOpReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int START_PIXEL = 0xFF000000;
+
+	private final InputStream input;
+	private final long width;
+	private final long height;
+	private final byte channels;
+	private final byte colorSpace;
+	private final long pixelCount;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int bufferPosition;
+	private int bufferLimit;
+	private long consumed;
+
+	private final int[] indexHashTable = new int[64];
+	private int previousPixel = START_PIXEL;
+
+	// the current operation
+	private final byte[] bytes = new byte[5];
+	private long offset;
+	private long position;
+	private int pixels;
+
+	/**
+	 * Create a new reader and read the "Quite Ok Image" header from the input
+	 *
+	 * @param input (InputStream) - Stream to read the "Quite Ok Image" file from
+	 * @throws IOException if the header cannot be read
+	 * @throws RuntimeException if the header is corrupted
+	 */
+	public QOIOpReader(InputStream input) throws IOException {
+		assert input != null;
+		this.input = input;
+
+		for (byte magic : QOISpecification.QOI_MAGIC) {
+			if (nextByte() != magic) {
+				Helper.fail("The input is not a \"Quite Ok Image\" file");
+			}
+		}
+		this.width = Integer.toUnsignedLong(nextInt());
+		this.height = Integer.toUnsignedLong(nextInt());
+		this.channels = nextByte();
+		this.colorSpace = nextByte();
+
+		if (width == 0 || height == 0) {
+			Helper.fail("Invalid image dimensions %d x %d", width, height);
+		}
+		if (channels != QOISpecification.RGB && channels != QOISpecification.RGBA) {
+			Helper.fail("Invalid number of channels %d", channels);
+		}
+		if (colorSpace != QOISpecification.sRGB && colorSpace != QOISpecification.ALL) {
+			Helper.fail("Invalid color space %d", colorSpace);
+		}
+		this.pixelCount = QOIStreamEncoder.pixelCount(width, height);
+	}
+
+	/**
+	 * Create a reader resuming between two operations of the file read by another reader
+	 *
+	 * @param input          (InputStream) - Stream positioned at the offset of the next operation
+	 * @param reader         (QOIOpReader) - Reader of the same file, used for the header information
+	 * @param offset         (long) - Offset in the file of the next operation
+	 * @param position       (long) - Index of the first pixel of the next operation
+	 * @param previousPixel  (int) - Last decoded ARGB pixel
+	 * @param indexHashTable (int[]) - Index table, it is copied
+	 */
+	QOIOpReader(InputStream input, QOIOpReader reader, long offset, long position, int previousPixel, int[] indexHashTable) {
+		assert input != null && reader != null && indexHashTable != null;
+		assert 0 <= position && position <= reader.pixelCount;
+		this.input = input;
+		this.width = reader.width;
+		this.height = reader.height;
+		this.channels = reader.channels;
+		this.colorSpace = reader.colorSpace;
+		this.pixelCount = reader.pixelCount;
+		this.consumed = offset;
+		this.position = position;
+		this.previousPixel = previousPixel;
+		System.arraycopy(indexHashTable, 0, this.indexHashTable, 0, this.indexHashTable.length);
+	}
+
+	// ==================================================================================
+	// ================================= READING METHODS ================================
+	// ==================================================================================
+
+	/**
+	 * Read the next operation
+	 *
+	 * @return (boolean) - false if the operations already cover all the pixels of the image
+	 * @throws IOException if the input cannot be read
+	 * @throws RuntimeException if the data is truncated or a run goes past the last pixel
+	 */
+	public boolean next() throws IOException {
+		position += pixels;
+		pixels = 0;
+		if (position >= pixelCount) {
+			return false;
+		}
+		offset = consumed;
+		pixels = 1;
+
+		byte chunk = nextByte();
+		bytes[0] = chunk;
+		int pixel;
+		if (chunk == QOISpecification.QOI_OP_RGB_TAG) {
+			bytes[1] = nextByte();
+			bytes[2] = nextByte();
+			bytes[3] = nextByte();
+			pixel = (previousPixel & 0xFF000000) | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+		} else if (chunk == QOISpecification.QOI_OP_RGBA_TAG) {
+			bytes[1] = nextByte();
+			bytes[2] = nextByte();
+			bytes[3] = nextByte();
+			bytes[4] = nextByte();
+			pixel = (bytes[4] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+		} else {
+			byte tag = (byte) (chunk & 0xC0);
+			if (tag == QOISpecification.QOI_OP_INDEX_TAG) {
+				pixel = indexHashTable[chunk & 0x3F];
+			} else if (tag == QOISpecification.QOI_OP_DIFF_TAG) {
+				pixel = add(previousPixel, (chunk >> 4 & 0x3) - 2, (chunk >> 2 & 0x3) - 2, (chunk & 0x3) - 2);
+			} else if (tag == QOISpecification.QOI_OP_LUMA_TAG) {
+				bytes[1] = nextByte();
+				int dg = (chunk & 0x3F) - 32;
+				pixel = add(previousPixel, dg + (bytes[1] >> 4 & 0xF) - 8, dg, dg + (bytes[1] & 0xF) - 8);
+			} else {
+				int run = (chunk & 0x3F) + 1;
+				if (run > pixelCount - position) {
+					Helper.fail("The run of %d pixels at offset %d goes past the last pixel", run, offset);
+				}
+				pixels = run;
+				pixel = previousPixel;
+			}
+		}
+		indexHashTable[QOIStreamEncoder.hash(pixel)] = pixel;
+		previousPixel = pixel;
+		return true;
+	}
+
+	/**
+	 * Check that the operations cover the whole image and are followed by the "End Of File" marker
+	 *
+	 * @throws IOException if the input cannot be read
+	 * @throws RuntimeException if some pixels were not read or the marker is corrupted
+	 */
+	public void finish() throws IOException {
+		if (position + pixels != pixelCount) {
+			Helper.fail("Only %d of the %d pixels of the image were read", position + pixels, pixelCount);
+		}
+		for (byte eof : QOISpecification.QOI_EOF) {
+			if (nextByte() != eof) {
+				Helper.fail("Corrupted \"End Of File\" marker");
+			}
+		}
+	}
+
+	/**
+	 * Close the underlying stream
+	 *
+	 * @throws IOException if the stream cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+	// ==================================================================================
+	// ================================ CURRENT OPERATION ===============================
+	// ==================================================================================
+
+	/**
+	 * @return (CodecStats.Op) - Kind of the current operation, null before the first or after the last one
+	 */
+	public CodecStats.Op op() {
+		if (pixels == 0) {
+			return null;
+		}
+		// the kind is only worked out on demand, the decoding never needs it
+		byte chunk = bytes[0];
+		if (chunk == QOISpecification.QOI_OP_RGB_TAG) {
+			return CodecStats.Op.RGB;
+		} else if (chunk == QOISpecification.QOI_OP_RGBA_TAG) {
+			return CodecStats.Op.RGBA;
+		}
+		byte tag = (byte) (chunk & 0xC0);
+		return tag == QOISpecification.QOI_OP_INDEX_TAG ? CodecStats.Op.INDEX
+				: tag == QOISpecification.QOI_OP_DIFF_TAG ? CodecStats.Op.DIFF
+				: tag == QOISpecification.QOI_OP_LUMA_TAG ? CodecStats.Op.LUMA
+				: CodecStats.Op.RUN;
+	}
+
+	/**
+	 * @return (long) - Offset in the file of the current operation
+	 */
+	public long offset() {
+		return offset;
+	}
+
+	/**
+	 * @param i (int) - Index of the byte in the operation, 0 for the tag
+	 * @return (byte) - Byte of the current operation
+	 */
+	public byte byteAt(int i) {
+		assert op() != null && 0 <= i && i < op().size();
+		return bytes[i];
+	}
+
+	/**
+	 * @return (long) - Index of the first pixel given by the current operation
+	 */
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * @return (int) - Number of pixels given by the current operation, more than one only for a run
+	 */
+	public int pixels() {
+		return pixels;
+	}
+
+	/**
+	 * @return (int) - ARGB pixel given by the current operation
+	 */
+	public int pixel() {
+		return previousPixel;
+	}
+
+	/**
+	 * @return (int[]) - Copy of the index table, after the current operation
+	 */
+	int[] indexHashTable() {
+		return indexHashTable.clone();
+	}
+
+	/**
+	 * @return (String) - Readable form of the current operation, e.g. "RUN 12" or "LUMA -3 +1 +0"
+	 */
+	public String describe() {
+		var op = op();
+		assert op != null;
+		return switch (op) {
+			case RUN -> "RUN " + pixels;
+			case INDEX -> "INDEX " + (bytes[0] & 0x3F);
+			case DIFF -> String.format("DIFF %+d %+d %+d", (bytes[0] >> 4 & 0x3) - 2, (bytes[0] >> 2 & 0x3) - 2, (bytes[0] & 0x3) - 2);
+			case LUMA -> String.format("LUMA %+d %+d %+d", (bytes[0] & 0x3F) - 32, (bytes[1] >> 4 & 0xF) - 8, (bytes[1] & 0xF) - 8);
+			case RGB -> String.format("RGB %d %d %d", bytes[1] & 0xFF, bytes[2] & 0xFF, bytes[3] & 0xFF);
+			case RGBA -> String.format("RGBA %d %d %d %d", bytes[1] & 0xFF, bytes[2] & 0xFF, bytes[3] & 0xFF, bytes[4] & 0xFF);
+		};
+	}
+
+	// ==================================================================================
+	// ================================= STATE ACCESSORS ================================
+	// ==================================================================================
+
+	/**
+	 * @return (long) - Width of the image
+	 */
+	public long width() {
+		return width;
+	}
+
+	/**
+	 * @return (long) - Height of the image
+	 */
+	public long height() {
+		return height;
+	}
+
+	/**
+	 * @return (byte) - Number of channels
+	 */
+	public byte channels() {
+		return channels;
+	}
+
+	/**
+	 * @return (byte) - Color space
+	 */
+	public byte colorSpace() {
+		return colorSpace;
+	}
+
+	/**
+	 * @return (long) - Number of pixels of the image
+	 */
+	public long pixelCount() {
+		return pixelCount;
+	}
+
+	/**
+	 * @return (long) - Number of bytes consumed so far, header included
+	 */
+	public long bytesRead() {
+		return consumed;
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private static int add(int pixel, int dr, int dg, int db) {
+		return (pixel & 0xFF000000)
+				| ((pixel >> 16) + dr & 0xFF) << 16
+				| ((pixel >> 8) + dg & 0xFF) << 8
+				| (pixel + db & 0xFF);
+	}
+
+	private byte nextByte() throws IOException {
+		if (bufferPosition == bufferLimit) {
+			int read = input.read(buffer, 0, BUFFER_SIZE);
+			if (read <= 0) {
+				Helper.fail("Unexpected end of the \"Quite Ok Image\" stream");
+			}
+			bufferPosition = 0;
+			bufferLimit = read;
+		}
+		consumed++;
+		return buffer[bufferPosition++];
+	}
+
+	private int nextInt() throws IOException {
+		return ArrayUtils.toInt(new byte[]{nextByte(), nextByte(), nextByte(), nextByte()});
+	}
+
+}
@@ -0,0 +1,257 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming "Quite Ok Image" Decoder.
+ * The header is read when the decoder is created and pixels are then pulled
+ * one at a time (or row by row) from the underlying stream, so only the decoder
+ * state (previous pixel, index table and pending run) stays resident.
+ * Pixel counts are tracked as long, so any image allowed by the 32-bit
+ * header can be decoded. The header and the operations are read by a QOIOpReader,
+ * the decoder hands out the pixels of each operation.
+ *
+ * @apiNote Pixels are ARGB packed integers, the same format as Helper.Image::data
+ * @version 1.3
+ * @since 1.4
+ */
+public final class QOIStreamDecoder implements Closeable {
+
+	private final QOIOpReader reader;
+	private final long pixelCount;
+	// number of pixels of the current operation not handed out yet
+	private int counter;
+	private long position;
+
+	// metrics of the decoding, only recorded for a decoder starting at the first pixel
+	private final boolean measured;
+	private boolean measuring;
+	private long measureStart;
+	private CodecEvents.Decode event;
+
+	/**
+	 * Create a new decoder and read the "Quite Ok Image" header from the input
+	 *
+	 * @param input (InputStream) - Stream to read the "Quite Ok Image" file from
+	 * @throws IOException if the header cannot be read
+	 * @throws RuntimeException if the header is corrupted
+	 */
+	public QOIStreamDecoder(InputStream input) throws IOException {
+		assert input != null;
+		this.reader = new QOIOpReader(input);
+		this.pixelCount = reader.pixelCount();
+		this.measured = true;
+	}
+
+	/**
+	 * Create a decoder resuming from a checkpoint of another decoder
+	 *
+	 * @param input      (InputStream) - Stream positioned at the offset of the checkpoint
+	 * @param decoder    (QOIStreamDecoder) - Decoder of the same image, used for the header information
+	 * @param checkpoint (Checkpoint) - State to resume from
+	 */
+	QOIStreamDecoder(InputStream input, QOIStreamDecoder decoder, Checkpoint checkpoint) {
+		assert input != null && decoder != null && checkpoint != null;
+		// the next operation starts after the pixels left in the current run
+		this.reader = new QOIOpReader(input, decoder.reader, checkpoint.offset(), checkpoint.position() + checkpoint.counter(),
+				checkpoint.previousPixel(), checkpoint.indexHashTable());
+		this.pixelCount = decoder.pixelCount;
+		this.position = checkpoint.position();
+		this.counter = checkpoint.counter();
+		this.measured = false;
+	}
+
+	/**
+	 * Snapshot of the decoder state between two pixels
+	 *
+	 * @param offset         (long) - Offset in the file of the next chunk to read
+	 * @param position       (long) - Index of the next pixel to decode
+	 * @param previousPixel  (int) - Last decoded ARGB pixel
+	 * @param indexHashTable (int[]) - Copy of the index table
+	 * @param counter        (int) - Number of pixels left in the current run
+	 */
+	record Checkpoint(long offset, long position, int previousPixel, int[] indexHashTable, int counter) {
+	}
+
+	// ==================================================================================
+	// ================================ DECODING METHODS ================================
+	// ==================================================================================
+
+	/**
+	 * Decode the next pixel of the image. The decoding is recorded in CodecMetrics and CodecEvents from
+	 * the first pixel until finish(), or until a failure
+	 *
+	 * @return (int) - ARGB pixel
+	 * @throws IOException if the input cannot be read
+	 * @throws RuntimeException if all the pixels were already read or the data is truncated
+	 */
+	public int readPixel() throws IOException {
+		if (position == 0 && measured) {
+			event = new CodecEvents.Decode("QOIStreamDecoder");
+			event.begin();
+			measuring = true;
+			measureStart = CodecMetrics.instance().enter(CodecMetrics.Operation.DECODE);
+		}
+		try {
+			return decodePixel();
+		} catch (IOException | RuntimeException e) {
+			leave(false);
+			throw e;
+		}
+	}
+
+	private int decodePixel() throws IOException {
+		if (position >= pixelCount) {
+			Helper.fail("All the %d pixels of the image have already been read", pixelCount);
+		}
+		position++;
+		if (counter == 0) {
+			// position < pixelCount, so there is a next operation
+			reader.next();
+			counter = reader.pixels();
+		}
+		counter--;
+		return reader.pixel();
+	}
+
+	/**
+	 * Decode the next pixels of the image
+	 *
+	 * @param pixels (int[]) - Buffer where to store the ARGB pixels
+	 * @param offset (int) - Index in the buffer of the first decoded pixel
+	 * @param length (int) - Number of pixels to decode
+	 * @throws IOException if the input cannot be read
+	 */
+	public void readPixels(int[] pixels, int offset, int length) throws IOException {
+		assert pixels != null;
+		assert offset >= 0 && length >= 0 && offset + length <= pixels.length;
+		for (int i = offset; i < offset + length; i++) {
+			pixels[i] = readPixel();
+		}
+	}
+
+	/**
+	 * Decode the next row of the image
+	 *
+	 * @param row (int[]) - Buffer where to store the ARGB pixels, its length must be the width of the image
+	 * @throws IOException if the input cannot be read
+	 */
+	public void readRow(int[] row) throws IOException {
+		assert row != null && row.length == width();
+		readPixels(row, 0, row.length);
+	}
+
+	/**
+	 * Check that the whole image was read and that it is followed by the "End Of File" marker
+	 *
+	 * @throws IOException if the input cannot be read
+	 * @throws RuntimeException if some pixels were not read or the marker is corrupted
+	 */
+	public void finish() throws IOException {
+		try {
+			if (position != pixelCount) {
+				Helper.fail("Only %d of the %d pixels of the image were read", position, pixelCount);
+			}
+			reader.finish();
+		} catch (IOException | RuntimeException e) {
+			leave(false);
+			throw e;
+		}
+		if (measuring) {
+			event.finish(width(), height(), channels(), bytesRead(), 4 * pixelCount);
+			CodecMetrics.instance().complete(CodecMetrics.Operation.DECODE, measureStart, pixelCount, bytesRead(), 4 * pixelCount);
+			leave(true);
+		}
+	}
+
+	/**
+	 * Capture the current state of the decoder, so the decoding can be resumed later from
+	 * the same position with {@link #QOIStreamDecoder(InputStream, QOIStreamDecoder, Checkpoint)}
+	 *
+	 * @return (Checkpoint) - The current state
+	 */
+	Checkpoint checkpoint() {
+		return new Checkpoint(reader.bytesRead(), position, reader.pixel(), reader.indexHashTable(), counter);
+	}
+
+	/**
+	 * Close the underlying stream, a decoding not finished yet is recorded as a failure
+	 *
+	 * @throws IOException if the stream cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		leave(false);
+		reader.close();
+	}
+
+	// ==================================================================================
+	// ================================= STATE ACCESSORS ================================
+	// ==================================================================================
+
+	/**
+	 * @return (long) - Width of the image
+	 */
+	public long width() {
+		return reader.width();
+	}
+
+	/**
+	 * @return (long) - Height of the image
+	 */
+	public long height() {
+		return reader.height();
+	}
+
+	/**
+	 * @return (byte) - Number of channels
+	 */
+	public byte channels() {
+		return reader.channels();
+	}
+
+	/**
+	 * @return (byte) - Color space
+	 */
+	public byte colorSpace() {
+		return reader.colorSpace();
+	}
+
+	/**
+	 * @return (long) - Number of pixels of the image
+	 */
+	public long pixelCount() {
+		return pixelCount;
+	}
+
+	/**
+	 * @return (long) - Number of pixels already read
+	 */
+	public long pixelsRead() {
+		return position;
+	}
+
+	/**
+	 * @return (long) - Number of bytes consumed so far, header included
+	 */
+	public long bytesRead() {
+		return reader.bytesRead();
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	/**
+	 * Record the end of the decoding in CodecMetrics, if it is measured and not ended yet
+	 */
+	private void leave(boolean completed) {
+		if (measuring) {
+			measuring = false;
+			CodecMetrics.instance().leave(CodecMetrics.Operation.DECODE, completed);
+		}
+	}
+
+}
@@ -0,0 +1,395 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming "Quite Ok Image" Encoder.
+ * Pixels are pushed one at a time (or row by row) and the encoding is written
+ * to the underlying stream as it is produced, so only the encoder state
+ * (previous pixel, index table and pending run) stays resident.
+ * Pixel counts are tracked as long, so any image allowed by the 32-bit
+ * header can be encoded.
+ *
+ * @apiNote Pixels are ARGB packed integers, the same format as Helper.Image::data
+ * @version 1.3
+ * @since 1.4
+ */
+public final class QOIStreamEncoder implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int START_PIXEL = 0xFF000000;
+
+	private final OutputStream output;
+	private final long width;
+	private final long height;
+	private final long pixelCount;
+	private final byte channels;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int bufferPosition;
+
+	private final int[] indexHashTable = new int[64];
+	private int previousPixel = START_PIXEL;
+	private int counter;
+	private long position;
+	private long written;
+	private boolean finished;
+
+	// metrics of the encoding, only recorded for an encoder starting at the first pixel
+	private final boolean measured;
+	private boolean measuring;
+	private long measureStart;
+	private CodecEvents.Encode event;
+
+	/**
+	 * Create a new encoder and write the "Quite Ok Image" header to the output
+	 *
+	 * @param output     (OutputStream) - Stream where to write the encoding
+	 * @param width      (long) - Width of the image, between 1 and 2^32 - 1
+	 * @param height     (long) - Height of the image, between 1 and 2^32 - 1
+	 * @param channels   (byte) - Number of channels
+	 * @param colorSpace (byte) - Color space
+	 * @throws IOException if the header cannot be written
+	 */
+	public QOIStreamEncoder(OutputStream output, long width, long height, byte channels, byte colorSpace) throws IOException {
+		assert output != null;
+		if (width <= 0 || width > 0xFFFFFFFFL || height <= 0 || height > 0xFFFFFFFFL) {
+			Helper.fail("Invalid image dimensions %d x %d", width, height);
+		}
+		if (channels != QOISpecification.RGB && channels != QOISpecification.RGBA) {
+			Helper.fail("Invalid number of channels %d", channels);
+		}
+		if (colorSpace != QOISpecification.sRGB && colorSpace != QOISpecification.ALL) {
+			Helper.fail("Invalid color space %d", colorSpace);
+		}
+		this.output = output;
+		this.width = width;
+		this.height = height;
+		this.pixelCount = pixelCount(width, height);
+		this.channels = channels;
+		this.measured = true;
+
+		put(QOISpecification.QOI_MAGIC);
+		putInt((int) width);
+		putInt((int) height);
+		put(channels);
+		put(colorSpace);
+	}
+
+	/**
+	 * Create an encoder resuming from a checkpoint of another encoder.
+	 * The header is not written again, the output must already contain the
+	 * first checkpoint.offset() bytes of the encoding
+	 *
+	 * @param output     (OutputStream) - Stream where to write the rest of the encoding
+	 * @param encoder    (QOIStreamEncoder) - Encoder of an image of the same dimensions
+	 * @param checkpoint (Checkpoint) - State to resume from
+	 */
+	QOIStreamEncoder(OutputStream output, QOIStreamEncoder encoder, Checkpoint checkpoint) {
+		assert output != null && encoder != null && checkpoint != null;
+		this.output = output;
+		this.width = encoder.width;
+		this.height = encoder.height;
+		this.pixelCount = encoder.pixelCount;
+		this.channels = encoder.channels;
+		this.written = checkpoint.offset();
+		this.position = checkpoint.position();
+		this.previousPixel = checkpoint.previousPixel();
+		this.counter = checkpoint.counter();
+		System.arraycopy(checkpoint.indexHashTable(), 0, indexHashTable, 0, indexHashTable.length);
+		this.measured = false;
+	}
+
+	/**
+	 * Snapshot of the encoder state between two pixels
+	 *
+	 * @param offset         (long) - Number of bytes produced before this state
+	 * @param position       (long) - Index of the next pixel to encode
+	 * @param previousPixel  (int) - Last encoded ARGB pixel
+	 * @param indexHashTable (int[]) - Copy of the index table
+	 * @param counter        (int) - Length of the run not written yet
+	 */
+	record Checkpoint(long offset, long position, int previousPixel, int[] indexHashTable, int counter) {
+
+		/**
+		 * Check if two encoders in these states produce the same bytes for the same pixels
+		 *
+		 * @param other (Checkpoint) - Other state
+		 * @return (boolean) - true if both states only differ by their offset
+		 */
+		boolean sameState(Checkpoint other) {
+			return position == other.position && previousPixel == other.previousPixel
+					&& counter == other.counter && Arrays.equals(indexHashTable, other.indexHashTable);
+		}
+	}
+
+	/**
+	 * Compute the number of pixels of an image
+	 *
+	 * @param width  (long) - Width of the image
+	 * @param height (long) - Height of the image
+	 * @return (long) - width * height
+	 * @throws RuntimeException if the product does not fit in a long
+	 */
+	static long pixelCount(long width, long height) {
+		try {
+			return Math.multiplyExact(width, height);
+		} catch (ArithmeticException e) {
+			return Helper.fail("Image of %d x %d pixels is too large", width, height);
+		}
+	}
+
+	// ==================================================================================
+	// ================================ ENCODING METHODS ================================
+	// ==================================================================================
+
+	/**
+	 * Encode the next pixel of the image. The encoding is recorded in CodecMetrics and CodecEvents from
+	 * the first pixel until finish(), or until a failure
+	 *
+	 * @param pixel (int) - ARGB pixel
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writePixel(int pixel) throws IOException {
+		if (position == 0 && measured) {
+			event = new CodecEvents.Encode("QOIStreamEncoder");
+			event.begin();
+			measuring = true;
+			measureStart = CodecMetrics.instance().enter(CodecMetrics.Operation.ENCODE);
+		}
+		try {
+			encodePixel(pixel);
+		} catch (IOException | RuntimeException e) {
+			leave(false);
+			throw e;
+		}
+	}
+
+	private void encodePixel(int pixel) throws IOException {
+		if (position >= pixelCount) {
+			Helper.fail("All the %d pixels of the image have already been written", pixelCount);
+		}
+		position++;
+		if (pixel == previousPixel) {
+			counter++;
+			if (counter >= 62 || position == pixelCount) {
+				put((byte) (QOISpecification.QOI_OP_RUN_TAG | (counter - 1)));
+				counter = 0;
+			}
+			return;
+		}
+		if (counter != 0) {
+			put((byte) (QOISpecification.QOI_OP_RUN_TAG | (counter - 1)));
+			counter = 0;
+		}
+		int index = hash(pixel);
+		if (indexHashTable[index] == pixel) {
+			put((byte) (QOISpecification.QOI_OP_INDEX_TAG | index));
+			previousPixel = pixel;
+			return;
+		}
+		indexHashTable[index] = pixel;
+		if ((pixel >>> 24) == (previousPixel >>> 24)) {
+			byte dr = (byte) ((pixel >> 16) - (previousPixel >> 16));
+			byte dg = (byte) ((pixel >> 8) - (previousPixel >> 8));
+			byte db = (byte) (pixel - previousPixel);
+			int dr_dg = (byte) (dr - dg);
+			int db_dg = (byte) (db - dg);
+			if (dr > -3 && dr < 2 && dg > -3 && dg < 2 && db > -3 && db < 2) {
+				put((byte) (QOISpecification.QOI_OP_DIFF_TAG | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2)));
+			} else if (dg > -33 && dg < 32 && dr_dg > -9 && dr_dg < 8 && db_dg > -9 && db_dg < 8) {
+				put((byte) (QOISpecification.QOI_OP_LUMA_TAG | (dg + 32)));
+				put((byte) ((dr_dg + 8) << 4 | (db_dg + 8)));
+			} else {
+				put(QOISpecification.QOI_OP_RGB_TAG);
+				put((byte) (pixel >> 16));
+				put((byte) (pixel >> 8));
+				put((byte) pixel);
+			}
+		} else {
+			put(QOISpecification.QOI_OP_RGBA_TAG);
+			put((byte) (pixel >> 16));
+			put((byte) (pixel >> 8));
+			put((byte) pixel);
+			put((byte) (pixel >> 24));
+		}
+		previousPixel = pixel;
+	}
+
+	/**
+	 * Encode the next pixels of the image
+	 *
+	 * @param pixels (int[]) - ARGB pixels
+	 * @param offset (int) - Index of the first pixel to encode
+	 * @param length (int) - Number of pixels to encode
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writePixels(int[] pixels, int offset, int length) throws IOException {
+		assert pixels != null;
+		assert offset >= 0 && length >= 0 && offset + length <= pixels.length;
+		for (int i = offset; i < offset + length; i++) {
+			writePixel(pixels[i]);
+		}
+	}
+
+	/**
+	 * Encode the next row of the image
+	 *
+	 * @param row (int[]) - ARGB pixels, its length must be the width of the image
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeRow(int[] row) throws IOException {
+		assert row != null && row.length == width;
+		writePixels(row, 0, row.length);
+	}
+
+	/**
+	 * Write the "End Of File" marker and flush the encoding to the underlying stream.
+	 * The underlying stream is left open
+	 *
+	 * @throws IOException if the output cannot be written
+	 * @throws RuntimeException if some pixels of the image were never written
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		try {
+			if (position != pixelCount) {
+				Helper.fail("Only %d of the %d pixels of the image were written", position, pixelCount);
+			}
+			finished = true;
+			put(QOISpecification.QOI_EOF);
+			flushBuffer();
+			output.flush();
+		} catch (IOException | RuntimeException e) {
+			leave(false);
+			throw e;
+		}
+		if (measuring) {
+			event.finish(width, height, channels, 4 * pixelCount, bytesWritten());
+			CodecMetrics.instance().complete(CodecMetrics.Operation.ENCODE, measureStart, pixelCount, 4 * pixelCount, bytesWritten());
+			leave(true);
+		}
+	}
+
+	/**
+	 * Capture the current state of the encoder, so the encoding can be resumed later from
+	 * the same position with {@link #QOIStreamEncoder(OutputStream, QOIStreamEncoder, Checkpoint)}
+	 *
+	 * @return (Checkpoint) - The current state
+	 */
+	Checkpoint checkpoint() {
+		return new Checkpoint(bytesWritten(), position, previousPixel, indexHashTable.clone(), counter);
+	}
+
+	/**
+	 * Write the bytes produced so far to the underlying stream, without
+	 * the pending run nor the "End Of File" marker
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	void flush() throws IOException {
+		flushBuffer();
+		output.flush();
+	}
+
+	/**
+	 * Finish the encoding and close the underlying stream
+	 *
+	 * @throws IOException if the output cannot be written or closed
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			output.close();
+		}
+	}
+
+	// ==================================================================================
+	// ================================= STATE ACCESSORS ================================
+	// ==================================================================================
+
+	/**
+	 * @return (long) - Width of the image
+	 */
+	public long width() {
+		return width;
+	}
+
+	/**
+	 * @return (long) - Height of the image
+	 */
+	public long height() {
+		return height;
+	}
+
+	/**
+	 * @return (long) - Number of pixels already written
+	 */
+	public long pixelsWritten() {
+		return position;
+	}
+
+	/**
+	 * @return (long) - Number of bytes produced so far, header included
+	 */
+	public long bytesWritten() {
+		return written + bufferPosition;
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	/**
+	 * Record the end of the encoding in CodecMetrics, if it is measured and not ended yet
+	 */
+	private void leave(boolean completed) {
+		if (measuring) {
+			measuring = false;
+			CodecMetrics.instance().leave(CodecMetrics.Operation.ENCODE, completed);
+		}
+	}
+
+	/**
+	 * Hash an ARGB pixel using the hash function specific to "Quite Ok Image" format
+	 *
+	 * @param pixel (int) - ARGB pixel
+	 * @return (int) - hash of the pixel
+	 * @see QOISpecification#hash(byte[])
+	 */
+	static int hash(int pixel) {
+		return ((pixel >> 16 & 0xFF) * 3 + (pixel >> 8 & 0xFF) * 5 + (pixel & 0xFF) * 7 + (pixel >>> 24) * 11) & 0x3F;
+	}
+
+	private void put(byte value) throws IOException {
+		if (bufferPosition == BUFFER_SIZE) {
+			flushBuffer();
+		}
+		buffer[bufferPosition++] = value;
+	}
+
+	private void put(byte[] values) throws IOException {
+		for (byte value : values) {
+			put(value);
+		}
+	}
+
+	private void putInt(int value) throws IOException {
+		put(ArrayUtils.fromInt(value));
+	}
+
+	private void flushBuffer() throws IOException {
+		output.write(buffer, 0, bufferPosition);
+		written += bufferPosition;
+		bufferPosition = 0;
+	}
+
+}
@@ -0,0 +1,212 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Image whose pixels are stored in fixed size segments and indexed with a long.
+ * Unlike Helper.Image, the number of pixels is not limited by the maximal
+ * length of a Java array, only by the dimensions allowed in the
+ * "Quite Ok Image" header (and the available memory).
+ *
+ * @apiNote Pixels are ARGB packed integers, the same format as Helper.Image::data
+ * @version 1.3
+ * @since 1.4
+ */
+public final class SegmentedImage {
+
+	/**
+	 * Each segment stores 2^SEGMENT_SHIFT pixels (64 MiB)
+	 */
+	private static final int SEGMENT_SHIFT = 24;
+
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final long width;
+	private final long height;
+	private final byte channels;
+	private final byte colorSpace;
+	private final int[][] segments;
+
+	/**
+	 * Allocate a new image, all the pixels are initialised to 0
+	 *
+	 * @param width      (long) - Width of the image, between 1 and 2^32 - 1
+	 * @param height     (long) - Height of the image, between 1 and 2^32 - 1
+	 * @param channels   (byte) - Number of channels
+	 * @param colorSpace (byte) - Color space
+	 * @throws RuntimeException if the dimensions are invalid
+	 */
+	public SegmentedImage(long width, long height, byte channels, byte colorSpace) {
+		if (width <= 0 || width > 0xFFFFFFFFL || height <= 0 || height > 0xFFFFFFFFL) {
+			Helper.fail("Invalid image dimensions %d x %d", width, height);
+		}
+		long pixels = QOIStreamEncoder.pixelCount(width, height);
+		long count = (pixels + SEGMENT_MASK) >>> SEGMENT_SHIFT;
+		if (count > Integer.MAX_VALUE) {
+			Helper.fail("Image of %d x %d pixels is too large", width, height);
+		}
+		this.width = width;
+		this.height = height;
+		this.channels = channels;
+		this.colorSpace = colorSpace;
+		this.segments = new int[(int) count][];
+		for (int i = 0; i < segments.length; i++) {
+			long remaining = pixels - ((long) i << SEGMENT_SHIFT);
+			segments[i] = new int[(int) Math.min(SEGMENT_SIZE, remaining)];
+		}
+	}
+
+	// ==================================================================================
+	// ================================= PIXEL ACCESSORS ================================
+	// ==================================================================================
+
+	/**
+	 * @param index (long) - Index of the pixel, in row-major order
+	 * @return (int) - ARGB pixel
+	 */
+	public int get(long index) {
+		return segments[(int) (index >>> SEGMENT_SHIFT)][(int) (index & SEGMENT_MASK)];
+	}
+
+	/**
+	 * @param x (long) - Column of the pixel
+	 * @param y (long) - Row of the pixel
+	 * @return (int) - ARGB pixel
+	 */
+	public int get(long x, long y) {
+		assert x >= 0 && x < width && y >= 0 && y < height;
+		return get(y * width + x);
+	}
+
+	/**
+	 * @param index (long) - Index of the pixel, in row-major order
+	 * @param pixel (int) - ARGB pixel
+	 */
+	public void set(long index, int pixel) {
+		segments[(int) (index >>> SEGMENT_SHIFT)][(int) (index & SEGMENT_MASK)] = pixel;
+	}
+
+	/**
+	 * @param x     (long) - Column of the pixel
+	 * @param y     (long) - Row of the pixel
+	 * @param pixel (int) - ARGB pixel
+	 */
+	public void set(long x, long y, int pixel) {
+		assert x >= 0 && x < width && y >= 0 && y < height;
+		set(y * width + x, pixel);
+	}
+
+	/**
+	 * @return (long) - Width of the image
+	 */
+	public long width() {
+		return width;
+	}
+
+	/**
+	 * @return (long) - Height of the image
+	 */
+	public long height() {
+		return height;
+	}
+
+	/**
+	 * @return (long) - Number of pixels of the image
+	 */
+	public long pixelCount() {
+		return width * height;
+	}
+
+	/**
+	 * @return (byte) - Number of channels
+	 */
+	public byte channels() {
+		return channels;
+	}
+
+	/**
+	 * @return (byte) - Color space
+	 */
+	public byte colorSpace() {
+		return colorSpace;
+	}
+
+	// ==================================================================================
+	// ================================ CONVERSION METHODS ==============================
+	// ==================================================================================
+
+	/**
+	 * Copy a Helper.Image into a segmented image
+	 *
+	 * @param image (Helper.Image) - Image to copy
+	 * @return (SegmentedImage) - The copy
+	 */
+	public static SegmentedImage of(Helper.Image image) {
+		assert image != null;
+		int[][] data = image.data();
+		var result = new SegmentedImage(data[0].length, data.length, image.channels(), image.color_space());
+		long index = 0;
+		for (int[] row : data) {
+			for (int pixel : row) {
+				result.set(index++, pixel);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Copy this image into a Helper.Image
+	 *
+	 * @return (Helper.Image) - The copy
+	 * @throws RuntimeException if the image does not fit in a Helper.Image
+	 */
+	public Helper.Image toImage() {
+		if (width > Integer.MAX_VALUE || height > Integer.MAX_VALUE) {
+			Helper.fail("Image of %d x %d pixels does not fit in a Helper.Image", width, height);
+		}
+		int[][] data = new int[(int) height][(int) width];
+		long index = 0;
+		for (int[] row : data) {
+			for (int x = 0; x < row.length; x++) {
+				row[x] = get(index++);
+			}
+		}
+		return new Helper.Image(data, channels, colorSpace);
+	}
+
+	/**
+	 * Decode a "Quite Ok Image" file from a stream
+	 *
+	 * @param input (InputStream) - Stream to read the file from, it is not closed
+	 * @return (SegmentedImage) - The decoded image
+	 * @throws IOException if the input cannot be read
+	 */
+	public static SegmentedImage read(InputStream input) throws IOException {
+		var decoder = new QOIStreamDecoder(input);
+		var image = new SegmentedImage(decoder.width(), decoder.height(), decoder.channels(), decoder.colorSpace());
+		for (int[] segment : image.segments) {
+			decoder.readPixels(segment, 0, segment.length);
+		}
+		decoder.finish();
+		return image;
+	}
+
+	/**
+	 * Encode the image as a "Quite Ok Image" file to a stream
+	 *
+	 * @param output (OutputStream) - Stream where to write the file, it is not closed
+	 * @throws IOException if the output cannot be written
+	 */
+	public void write(OutputStream output) throws IOException {
+		var encoder = new QOIStreamEncoder(output, width, height, channels, colorSpace);
+		for (int[] segment : segments) {
+			encoder.writePixels(segment, 0, segment.length);
+		}
+		encoder.finish();
+	}
+
+}
@@ -0,0 +1,147 @@
+package cs107;
+
+import java.util.Locale;
+
+/**
+ * Time spent in each stage of a conversion between "PNG" and "QOI".
+ * A conversion given a timer adds the duration of each of its stages to it, so a timer
+ * given to several conversions (or the sum of several timers) tells whether a batch is
+ * bound by the disk, by ImageIO or by the codec. The methods of the codec accept a null
+ * timer, which measures nothing.
+ * <pre>
+ * var timer = new StageTimer();
+ * Main.pngToQoi("references/beach.png", "beach.qoi", timer);
+ * System.out.println(timer);
+ * </pre>
+ * A timer is not thread-safe : the stages of a conversion must not run at the same time.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class StageTimer {
+
+	/**
+	 * Stages of a conversion
+	 */
+	public enum Stage {
+		/** Reading the input file */
+		READ,
+		/** Decoding or encoding the "PNG" file with ImageIO */
+		IMAGE_IO,
+		/** Converting the pixels between BufferedImage, Helper.Image and the channels */
+		PIXELS,
+		/** Encoding or decoding the "QOI" data */
+		CODEC,
+		/** Writing the output file */
+		WRITE
+	}
+
+	private final long[] nanos = new long[Stage.values().length];
+	private long conversions;
+
+	// ==================================================================================
+	// ================================ RECORDING METHODS ===============================
+	// ==================================================================================
+
+	/**
+	 * @param timer (StageTimer) - Timer of the conversion, may be null
+	 * @return (long) - Current time to give to lap(), 0 if the timer is null
+	 */
+	static long now(StageTimer timer) {
+		return timer == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Add the time since a mark to a stage
+	 *
+	 * @param timer (StageTimer) - Timer of the conversion, nothing is measured if null
+	 * @param stage (Stage) - Stage which just ended
+	 * @param since (long) - Value returned by now() or lap() when the stage started
+	 * @return (long) - Current time, the start of the next stage
+	 */
+	static long lap(StageTimer timer, Stage stage, long since) {
+		if (timer == null) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		timer.nanos[stage.ordinal()] += now - since;
+		return now;
+	}
+
+	/**
+	 * Count one more conversion in the timer
+	 */
+	public void count() {
+		conversions++;
+	}
+
+	/**
+	 * Add the times of another timer to this one
+	 *
+	 * @param other (StageTimer) - Timer to add, may be null
+	 */
+	public void add(StageTimer other) {
+		if (other == null) {
+			return;
+		}
+		for (int i = 0; i < nanos.length; i++) {
+			nanos[i] += other.nanos[i];
+		}
+		conversions += other.conversions;
+	}
+
+	// ==================================================================================
+	// ================================== ACCESSORS =====================================
+	// ==================================================================================
+
+	/**
+	 * @param stage (Stage) - A stage
+	 * @return (long) - Time spent in the stage, in nanoseconds
+	 */
+	public long nanos(Stage stage) {
+		return nanos[stage.ordinal()];
+	}
+
+	/**
+	 * @return (long) - Time spent in all the stages, in nanoseconds
+	 */
+	public long total() {
+		long total = 0;
+		for (long n : nanos) {
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * @return (long) - Number of conversions counted in the timer
+	 */
+	public long conversions() {
+		return conversions;
+	}
+
+	/**
+	 * @return (Stage) - Stage where most of the time was spent
+	 */
+	public Stage slowest() {
+		var slowest = Stage.READ;
+		for (var stage : Stage.values()) {
+			if (nanos(stage) > nanos(slowest)) {
+				slowest = stage;
+			}
+		}
+		return slowest;
+	}
+
+	@Override
+	public String toString() {
+		var text = new StringBuilder();
+		long total = Math.max(1, total());
+		for (var stage : Stage.values()) {
+			text.append(String.format(Locale.ROOT, "%s %.2f ms (%.0f%%), ", stage.name().toLowerCase(Locale.ROOT),
+					nanos(stage) / 1e6, nanos(stage) * 100.0 / total));
+		}
+		return text.append(String.format(Locale.ROOT, "%s-bound", slowest().name().toLowerCase(Locale.ROOT))).toString();
+	}
+
+}
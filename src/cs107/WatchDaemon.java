@@ -0,0 +1,346 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Long-running "PNG" to "QOI" converter of spool directories.
+ * The input directories (and their sub-directories) are watched with a WatchService.
+ * A new or modified "PNG" file is converted once its size and modification time have not
+ * changed for a quiet period, so partially written files are not picked up. Files whose
+ * output is already newer are skipped. The codec is warmed up when the daemon starts and
+ * then stays hot in the same JVM for all the following files. The codec metrics are
+ * published over JMX (see CodecMetrics).
+ * <pre>
+ * java -cp out cs107.WatchDaemon [--quiet MILLIS] [--threads N] -o OUTPUT INPUT...
+ * </pre>
+ * main prints one line per converted file and runs until the process is stopped.
+ *
+ * @version 1.3
+ * @since 1.4
+ */
+public final class WatchDaemon implements Runnable, Closeable {
+
+	private record Pending(Path root, long size, long modified, long seen) {
+	}
+
+	private final Path outputRoot;
+	private final long quietNanos;
+	private final Consumer<BatchConverter.FileResult> listener;
+	private final WatchService watcher;
+	private final ExecutorService workers;
+	private final Path[] inputRoots;
+	// registered directory -> {input root, directory}
+	private final Map<WatchKey, Path[]> keys = new HashMap<>();
+	private final Map<Path, Pending> pending = new HashMap<>();
+	private volatile boolean running = true;
+
+	/**
+	 * Create a daemon, register the input directories and warm up the codec
+	 *
+	 * @param outputRoot  (Path) - Directory where to write the "QOI" files, at the same relative
+	 *                    path as in their input directory
+	 * @param quietMillis (long) - Time during which a file must not change before being converted
+	 * @param threads     (int) - Number of files converted at the same time
+	 * @param listener    (Consumer of BatchConverter.FileResult) - Called after each conversion
+	 * @param inputRoots  (Path ...) - Directories to watch
+	 * @throws UncheckedIOException if a directory cannot be watched
+	 */
+	public WatchDaemon(Path outputRoot, long quietMillis, int threads, Consumer<BatchConverter.FileResult> listener,
+	                   Path... inputRoots) {
+		assert outputRoot != null && listener != null && inputRoots.length > 0;
+		assert quietMillis >= 0 && threads > 0;
+		this.outputRoot = outputRoot;
+		this.quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+		this.listener = listener;
+		this.inputRoots = inputRoots.clone();
+		this.workers = Executors.newFixedThreadPool(threads);
+		try {
+			this.watcher = FileSystems.getDefault().newWatchService();
+			for (var root : inputRoots) {
+				register(root, root);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		// the synthetic images of the warm up are not part of the published metrics
+		CodecMetrics.unrecorded(WatchDaemon::warmUp);
+		CodecMetrics.register();
+	}
+
+	/**
+	 * Watch the input directories until the process is stopped
+	 *
+	 * @param args (String[]) - Options, output directory and input directories
+	 */
+	public static void main(String[] args) {
+		long quietMillis = 1000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String output = null;
+		var inputs = new ArrayList<Path>();
+		boolean valid = true;
+		for (int i = 0; i < args.length && valid; i++) {
+			switch (args[i]) {
+				case "--quiet" -> {
+					valid = ++i < args.length && args[i].matches("\\d{1,9}");
+					quietMillis = valid ? Long.parseLong(args[i]) : quietMillis;
+				}
+				case "--threads" -> {
+					valid = ++i < args.length && args[i].matches("\\d{1,4}") && Integer.parseInt(args[i]) > 0;
+					threads = valid ? Integer.parseInt(args[i]) : threads;
+				}
+				case "-o" -> {
+					valid = ++i < args.length;
+					output = valid ? args[i] : null;
+				}
+				default -> inputs.add(Path.of(args[i]));
+			}
+		}
+		if (!valid || output == null || inputs.isEmpty() || !inputs.stream().allMatch(Files::isDirectory)) {
+			System.err.println("usage : java cs107.WatchDaemon [--quiet MILLIS] [--threads N] -o OUTPUT INPUT...");
+			System.exit(2);
+		}
+		var daemon = new WatchDaemon(Path.of(output), quietMillis, threads, result -> {
+			if (result.error() == null) {
+				System.out.printf(Locale.ROOT, "%s -> %s (%d pixels, %.1f MP/s)%n", result.input(), result.output(),
+						result.pixels(), result.megapixelsPerSecond());
+			} else {
+				System.err.printf("%s : %s%n", result.input(), result.error().getMessage());
+			}
+		}, inputs.toArray(Path[]::new));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				daemon.close();
+			} catch (IOException e) {
+				// the process is stopping anyway
+			}
+		}));
+		daemon.run();
+	}
+
+	// ==================================================================================
+	// =================================== DAEMON API ===================================
+	// ==================================================================================
+
+	/**
+	 * Watch the directories until the daemon is closed. The files present when the
+	 * daemon starts are considered as new
+	 */
+	@Override
+	public void run() {
+		for (var root : inputRoots) {
+			scan(root, root);
+		}
+		try {
+			while (running) {
+				var key = watcher.poll(Math.max(1, TimeUnit.NANOSECONDS.toMillis(quietNanos) / 2), TimeUnit.MILLISECONDS);
+				if (key != null) {
+					handle(key);
+				}
+				submitQuietFiles();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// the daemon was closed
+		}
+	}
+
+	/**
+	 * Stop watching the directories and wait for the running conversions
+	 *
+	 * @throws IOException if the watch service cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		watcher.close();
+		workers.shutdown();
+		try {
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// ==================================================================================
+	// ================================= HELPER METHODS =================================
+	// ==================================================================================
+
+	private void register(Path root, Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+				var key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+				keys.put(key, new Path[]{root, dir});
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void handle(WatchKey key) {
+		var roots = keys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				scan(roots[1], roots[0]);
+				continue;
+			}
+			var file = roots[1].resolve((Path) event.context());
+			if (Files.isDirectory(file)) {
+				try {
+					register(roots[0], file);
+				} catch (IOException e) {
+					// the directory disappeared, nothing to watch
+				}
+				scan(file, roots[0]);
+			} else {
+				observe(roots[0], file);
+			}
+		}
+		if (!key.reset()) {
+			keys.remove(key);
+		}
+	}
+
+	private void scan(Path directory, Path root) {
+		try (var files = Files.walk(directory)) {
+			files.filter(Files::isRegularFile).forEach(file -> observe(root, file));
+		} catch (IOException | UncheckedIOException e) {
+			// the directory disappeared, nothing to convert
+		}
+	}
+
+	private void observe(Path root, Path file) {
+		if (!file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".png")) {
+			return;
+		}
+		try {
+			var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			pending.put(file, new Pending(root, attributes.size(), attributes.lastModifiedTime().toMillis(), System.nanoTime()));
+		} catch (IOException e) {
+			pending.remove(file);
+		}
+	}
+
+	private void submitQuietFiles() {
+		long now = System.nanoTime();
+		var iterator = pending.entrySet().iterator();
+		while (iterator.hasNext()) {
+			var entry = iterator.next();
+			var file = entry.getKey();
+			var seen = entry.getValue();
+			if (now - seen.seen() < quietNanos) {
+				continue;
+			}
+			try {
+				var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				if (attributes.size() != seen.size() || attributes.lastModifiedTime().toMillis() != seen.modified()) {
+					// still being written, wait for another quiet period
+					entry.setValue(new Pending(seen.root(), attributes.size(), attributes.lastModifiedTime().toMillis(), now));
+					continue;
+				}
+			} catch (IOException e) {
+				iterator.remove();
+				continue;
+			}
+			iterator.remove();
+			var name = file.getFileName().toString();
+			var output = outputRoot.resolve(seen.root().relativize(file)).resolveSibling(name.substring(0, name.length() - 4) + ".qoi");
+			if (upToDate(file, output)) {
+				continue;
+			}
+			workers.execute(() -> listener.accept(convert(file, output)));
+		}
+	}
+
+	private static boolean upToDate(Path input, Path output) {
+		try {
+			return Files.exists(output) && Files.getLastModifiedTime(output).compareTo(Files.getLastModifiedTime(input)) >= 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static BatchConverter.FileResult convert(Path input, Path output) {
+		long start = System.nanoTime();
+		long inputBytes = 0;
+		var stages = new StageTimer();
+		try {
+			long mark = StageTimer.now(stages);
+			var content = Files.readAllBytes(input);
+			StageTimer.lap(stages, StageTimer.Stage.READ, mark);
+			inputBytes = content.length;
+			var image = Helper.decodeImage(content, stages);
+			var encoded = QOIEncoder.qoiFile(image, stages);
+			mark = StageTimer.now(stages);
+			var directory = output.toAbsolutePath().getParent();
+			Files.createDirectories(directory);
+			// readers of the output directory never see a partial file, and each conversion
+			// has its own temporary file, removed if it could not be moved
+			var temporary = Files.createTempFile(directory, output.getFileName() + ".", ".tmp");
+			boolean moved = false;
+			try {
+				Files.write(temporary, encoded);
+				Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				moved = true;
+			} finally {
+				if (!moved) {
+					deleteQuietly(temporary);
+				}
+			}
+			StageTimer.lap(stages, StageTimer.Stage.WRITE, mark);
+			stages.count();
+			long pixels = (long) image.data().length * image.data()[0].length;
+			return new BatchConverter.FileResult(input, output, inputBytes, encoded.length, pixels, System.nanoTime() - start, stages, null);
+		} catch (IOException | RuntimeException e) {
+			return new BatchConverter.FileResult(input, output, inputBytes, 0, 0, System.nanoTime() - start, stages, e);
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// the conversion already failed, its error is the one reported
+		}
+	}
+
+	/**
+	 * Run the conversion on a small gradient, from its "PNG" file in memory, so the first real
+	 * file does not pay for the class loading and the interpreted mode of ImageIO and the encoder
+	 */
+	private static void warmUp() {
+		int[][] data = new int[64][64];
+		for (int y = 0; y < data.length; y++) {
+			for (int x = 0; x < data[y].length; x++) {
+				data[y][x] = 0xFF000000 | (x * 4) << 16 | (y * 4) << 8 | (x ^ y);
+			}
+		}
+		var png = Helper.encodePng(new Helper.Image(data, QOISpecification.RGB, QOISpecification.sRGB));
+		for (int i = 0; i < 200; i++) {
+			QOIEncoder.qoiFile(Helper.decodeImage(png));
+		}
+	}
+
+}